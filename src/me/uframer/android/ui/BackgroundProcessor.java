@@ -0,0 +1,212 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * <p>
+ * Blurs and tints a downscaled copy of the panorama background on a worker thread. The source
+ * bitmap is rendered on the UI thread, since drawables are not thread safe, and the result is
+ * handed back on the UI thread once it's complete, so a half processed bitmap is never drawn.
+ * </p>
+ * <p>
+ * NOTE: The blur is a separable box blur applied three times, which is close to a Gaussian
+ * blur and costs O(1) per pixel whatever the radius is.
+ * </p>
+ * @author jiaoye
+ *
+ */
+class BackgroundProcessor {
+
+    private static final String LOG_TAG = BackgroundProcessor.class.toString();
+
+    private static final int BLUR_PASSES = 3;
+
+    /**
+     * Receives the result on the UI thread.
+     */
+    static interface Callback {
+        /**
+         * @param result the processed bitmap owned by the callback, or null if it failed
+         * @param generation the generation passed to {@link BackgroundProcessor#process}
+         */
+        void onBackgroundProcessed(Bitmap result, int generation);
+    }
+
+    private static class Task extends AsyncTask<Void, Void, Bitmap> {
+        private final Bitmap mSource;
+        private final int mRadius;
+        private final int mTint;
+        private final int mGeneration;
+        private final Callback mCallback;
+        // guarded by this, the source is recycled once it's cancelled and not being processed
+        private boolean mIsStarted;
+        private boolean mIsDone;
+        private boolean mIsCancelled;
+
+        Task(Bitmap source, int radius, int tint, int generation, Callback callback) {
+            mSource = source;
+            mRadius = radius;
+            mTint = tint;
+            mGeneration = generation;
+            mCallback = callback;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            synchronized (this) {
+                if (mIsCancelled) {
+                    return null;
+                }
+                mIsStarted = true;
+            }
+            try {
+                return processSource();
+            }
+            finally {
+                synchronized (this) {
+                    mIsDone = true;
+                    if (mIsCancelled) {
+                        mSource.recycle();
+                    }
+                }
+            }
+        }
+
+        private Bitmap processSource() {
+            final int width = mSource.getWidth();
+            final int height = mSource.getHeight();
+            final int[] pixels;
+            try {
+                pixels = new int[width * height];
+            }
+            catch (OutOfMemoryError e) {
+                Log.w(LOG_TAG, "not enough memory to process the background");
+                return null;
+            }
+            mSource.getPixels(pixels, 0, width, 0, 0, width, height);
+            if (mRadius > 0) {
+                blur(pixels, width, height, mRadius);
+            }
+            if (Color.alpha(mTint) > 0) {
+                tint(pixels, mTint);
+            }
+            mSource.setPixels(pixels, 0, width, 0, 0, width, height);
+            return mSource;
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap result) {
+            mCallback.onBackgroundProcessed(result, mGeneration);
+        }
+
+        /*
+         * Before API level 11 this is called as soon as the task is cancelled, maybe while
+         * doInBackground() still works on the source, which then recycles it when it's done.
+         */
+        @Override
+        protected void onCancelled() {
+            synchronized (this) {
+                mIsCancelled = true;
+                if (!mIsStarted || mIsDone) {
+                    mSource.recycle();
+                }
+            }
+        }
+    }
+
+    private Task mTask;
+
+    /**
+     * Start processing a bitmap, a running task is cancelled.
+     * @param source a mutable bitmap rendered from the background, processed in place and owned
+     * by the processor until it's handed to the callback
+     * @param radius blur radius in pixels of the source
+     * @param tint color blended over the blurred pixels, its alpha is the strength
+     */
+    void process(Bitmap source, int radius, int tint, int generation, Callback callback) {
+        cancel();
+        mTask = new Task(source, radius, tint, generation, callback);
+        mTask.execute();
+    }
+
+    void cancel() {
+        if (mTask != null) {
+            mTask.cancel(false);
+            mTask = null;
+        }
+    }
+
+    /*
+     * Blur the pixels with BLUR_PASSES separable box blurs.
+     */
+    static void blur(int[] pixels, int width, int height, int radius) {
+        final int[] buffer = new int[pixels.length];
+        for (int pass = 0; pass < BLUR_PASSES; ++pass) {
+            // 1. rows from pixels into buffer
+            boxBlur(pixels, buffer, width, height, radius, 1, width);
+            // 2. columns from buffer back into pixels
+            boxBlur(buffer, pixels, height, width, radius, width, 1);
+        }
+    }
+
+    /*
+     * One box blur over lines of length pixels, with running sums per channel. Pixels of a
+     * line are step apart and lines are stride apart, which covers both rows and columns.
+     * Pixels beyond the edges repeat the edge pixel.
+     */
+    private static void boxBlur(int[] in, int[] out, int length, int lines, int radius, int step, int stride) {
+        final int window = 2 * radius + 1;
+        final int last = length - 1;
+        for (int line = 0; line < lines; ++line) {
+            final int start = line * stride;
+            int a = 0;
+            int r = 0;
+            int g = 0;
+            int b = 0;
+            for (int i = -radius; i <= radius; ++i) {
+                final int p = in[start + clamp(i, last) * step];
+                a += p >>> 24;
+                r += (p >> 16) & 0xff;
+                g += (p >> 8) & 0xff;
+                b += p & 0xff;
+            }
+            for (int i = 0; i < length; ++i) {
+                out[start + i * step] = ((a / window) << 24) | ((r / window) << 16) | ((g / window) << 8) | (b / window);
+                final int added = in[start + clamp(i + radius + 1, last) * step];
+                final int removed = in[start + clamp(i - radius, last) * step];
+                a += (added >>> 24) - (removed >>> 24);
+                r += ((added >> 16) & 0xff) - ((removed >> 16) & 0xff);
+                g += ((added >> 8) & 0xff) - ((removed >> 8) & 0xff);
+                b += (added & 0xff) - (removed & 0xff);
+            }
+        }
+    }
+
+    private static int clamp(int i, int last) {
+        return i < 0 ? 0 : (i > last ? last : i);
+    }
+
+    /*
+     * Blend the tint color over every pixel, keeping the alpha of the pixel.
+     */
+    static void tint(int[] pixels, int tint) {
+        final int strength = Color.alpha(tint);
+        final int inverse = 255 - strength;
+        final int tr = Color.red(tint) * strength;
+        final int tg = Color.green(tint) * strength;
+        final int tb = Color.blue(tint) * strength;
+        for (int i = 0; i < pixels.length; ++i) {
+            final int p = pixels[i];
+            final int r = (((p >> 16) & 0xff) * inverse + tr) / 255;
+            final int g = (((p >> 8) & 0xff) * inverse + tg) / 255;
+            final int b = ((p & 0xff) * inverse + tb) / 255;
+            pixels[i] = (p & 0xff000000) | (r << 16) | (g << 8) | b;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+
+/**
+ * <p>
+ * A bitmap cache bounded in bytes. Once the total size exceeds the limit, the least
+ * recently used bitmaps are recycled.
+ * </p>
+ * <p>
+ * NOTE: Bitmaps handed over with {@link #put} are owned by the cache, use {@link #remove} to
+ * take one back before drawing it outside of the cache. The cache is accounted by
+ * {@link MemoryBudget} once registered there.
+ * </p>
+ * @author jiaoye
+ *
+ */
+class BitmapLruCache<K> implements MemoryBudget.Cache {
+
+    private static class Entry {
+        final Bitmap bitmap;
+        long accessTime;
+
+        Entry(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.accessTime = SystemClock.uptimeMillis();
+        }
+    }
+
+    private final String mName;
+    private final boolean mRecycleEvicted;
+    private final LinkedHashMap<K, Entry> mMap;
+    private long mMaxSize;
+    private long mSize;
+
+    /**
+     * @param name the name usage is reported under by MemoryBudget
+     * @param maxSize the maximum size in bytes
+     */
+    BitmapLruCache(String name, long maxSize) {
+        this(name, maxSize, true);
+    }
+
+    /**
+     * @param recycleEvicted false if evicted bitmaps may still be drawn elsewhere, they are
+     * then left to the garbage collector instead of being recycled
+     */
+    BitmapLruCache(String name, long maxSize, boolean recycleEvicted) {
+        mName = name;
+        mRecycleEvicted = recycleEvicted;
+        mMap = new LinkedHashMap<K, Entry>(16, 0.75f, true);
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * @return the cached bitmap or null, the bitmap is still owned by the cache
+     */
+    Bitmap get(K key) {
+        final Entry entry = mMap.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.accessTime = SystemClock.uptimeMillis();
+        return entry.bitmap;
+    }
+
+    /**
+     * Hand a bitmap over to the cache. The previous bitmap of the same key is recycled.
+     */
+    void put(K key, Bitmap bitmap) {
+        final Entry previous = mMap.put(key, new Entry(bitmap));
+        mSize += sizeOf(bitmap);
+        if (previous != null) {
+            mSize -= sizeOf(previous.bitmap);
+            if (previous.bitmap != bitmap && mRecycleEvicted) {
+                previous.bitmap.recycle();
+            }
+        }
+        trimToSize(mMaxSize);
+        MemoryBudget.getInstance().enforce();
+    }
+
+    /**
+     * Take a bitmap back from the cache, the caller becomes responsible for recycling it.
+     */
+    Bitmap remove(K key) {
+        final Entry entry = mMap.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        mSize -= sizeOf(entry.bitmap);
+        return entry.bitmap;
+    }
+
+    /**
+     * Recycle the least recently used bitmaps until the total size is not larger than maxSize.
+     */
+    void trimToSize(long maxSize) {
+        if (mSize <= maxSize) {
+            return;
+        }
+        final Iterator<Map.Entry<K, Entry>> it = mMap.entrySet().iterator();
+        while (mSize > maxSize && it.hasNext()) {
+            final Bitmap bitmap = it.next().getValue().bitmap;
+            it.remove();
+            mSize -= sizeOf(bitmap);
+            if (mRecycleEvicted) {
+                bitmap.recycle();
+            }
+        }
+    }
+
+    void evictAll() {
+        trimToSize(-1);
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public long size() {
+        return mSize;
+    }
+
+    @Override
+    public long oldestAccessTime() {
+        if (mMap.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        return mMap.values().iterator().next().accessTime;
+    }
+
+    @Override
+    public boolean evictOldest() {
+        if (mMap.isEmpty()) {
+            return false;
+        }
+        final Iterator<Entry> it = mMap.values().iterator();
+        final Bitmap bitmap = it.next().bitmap;
+        it.remove();
+        mSize -= sizeOf(bitmap);
+        if (mRecycleEvicted) {
+            bitmap.recycle();
+        }
+        return true;
+    }
+
+    long maxSize() {
+        return mMaxSize;
+    }
+
+    void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    static int sizeOf(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
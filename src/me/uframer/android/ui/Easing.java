@@ -0,0 +1,159 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.util.HashMap;
+
+import android.view.animation.Interpolator;
+
+/**
+ * <p>
+ * Easing curves evaluated from precomputed lookup tables with linear interpolation, so that no
+ * transcendental math is done per frame. Curves are cached by their parameters and can be
+ * plugged into {@link PanoramaView}, {@link FlipInAnimation} and {@link FlipOutAnimation}.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public final class Easing implements Interpolator {
+
+    private static final int TABLE_SIZE = 257;
+    private static final int BEZIER_ITERATIONS = 16;
+
+    private static final HashMap<String, Easing> sCurves = new HashMap<String, Easing>();
+
+    private final float[] mTable;
+
+    private Easing(float[] table) {
+        mTable = table;
+    }
+
+    @Override
+    public float getInterpolation(float t) {
+        if (t <= 0) {
+            return mTable[0];
+        }
+        if (t >= 1) {
+            return mTable[TABLE_SIZE - 1];
+        }
+        final float position = t * (TABLE_SIZE - 1);
+        final int index = (int) position;
+        final float fraction = position - index;
+        return mTable[index] + fraction * (mTable[index + 1] - mTable[index]);
+    }
+
+    /**
+     * (1 - e^-t) / (1 - 1/e), the default curve of PanoramaView scrolling.
+     */
+    public static Easing exponential() {
+        final String key = "exponential";
+        synchronized (sCurves) {
+            Easing curve = sCurves.get(key);
+            if (curve == null) {
+                final float[] table = new float[TABLE_SIZE];
+                final double scale = 1 - 1 / Math.E;
+                for (int i = 0; i < TABLE_SIZE; ++i) {
+                    final double t = (double) i / (TABLE_SIZE - 1);
+                    table[i] = (float) ((1 - Math.exp(-t)) / scale);
+                }
+                curve = new Easing(table);
+                sCurves.put(key, curve);
+            }
+            return curve;
+        }
+    }
+
+    /**
+     * t^3 * ((tension + 1) * t - tension), which pulls back before accelerating. The default
+     * curve of FlipOutAnimation uses a tension of 1.
+     */
+    public static Easing backIn(float tension) {
+        final String key = "backIn:" + tension;
+        synchronized (sCurves) {
+            Easing curve = sCurves.get(key);
+            if (curve == null) {
+                final float[] table = new float[TABLE_SIZE];
+                for (int i = 0; i < TABLE_SIZE; ++i) {
+                    final float t = (float) i / (TABLE_SIZE - 1);
+                    table[i] = t * t * t * ((tension + 1) * t - tension);
+                }
+                curve = new Easing(table);
+                sCurves.put(key, curve);
+            }
+            return curve;
+        }
+    }
+
+    /**
+     * 1 - (1 - t)^2, the default curve of FlipInAnimation.
+     */
+    public static Easing quadraticOut() {
+        final String key = "quadraticOut";
+        synchronized (sCurves) {
+            Easing curve = sCurves.get(key);
+            if (curve == null) {
+                final float[] table = new float[TABLE_SIZE];
+                for (int i = 0; i < TABLE_SIZE; ++i) {
+                    final float t = (float) i / (TABLE_SIZE - 1);
+                    table[i] = 1.0f - (1.0f - t) * (1.0f - t);
+                }
+                curve = new Easing(table);
+                sCurves.put(key, curve);
+            }
+            return curve;
+        }
+    }
+
+    /**
+     * A cubic Bezier curve from (0, 0) to (1, 1) with the control points (x1, y1) and (x2, y2),
+     * as used by CSS transitions. x1 and x2 must be in [0, 1].
+     */
+    public static Easing cubicBezier(float x1, float y1, float x2, float y2) {
+        if (x1 < 0 || x1 > 1 || x2 < 0 || x2 > 1) {
+            throw new Error("x coordinates of control points must be in [0, 1]");
+        }
+        final String key = "cubicBezier:" + x1 + "," + y1 + "," + x2 + "," + y2;
+        synchronized (sCurves) {
+            Easing curve = sCurves.get(key);
+            if (curve == null) {
+                final float[] table = new float[TABLE_SIZE];
+                for (int i = 0; i < TABLE_SIZE; ++i) {
+                    final float x = (float) i / (TABLE_SIZE - 1);
+                    table[i] = bezier(solveBezierParameter(x, x1, x2), y1, y2);
+                }
+                curve = new Easing(table);
+                sCurves.put(key, curve);
+            }
+            return curve;
+        }
+    }
+
+    /*
+     * One coordinate of a cubic Bezier curve from 0 to 1 at parameter s.
+     */
+    private static float bezier(float s, float p1, float p2) {
+        final float r = 1 - s;
+        return 3 * r * r * s * p1 + 3 * r * s * s * p2 + s * s * s;
+    }
+
+    /*
+     * Find the parameter s at which the x coordinate of the curve equals x by bisection, which
+     * always converges since x(s) is monotonic for control points in [0, 1].
+     */
+    private static float solveBezierParameter(float x, float x1, float x2) {
+        float low = 0;
+        float high = 1;
+        float s = x;
+        for (int i = 0; i < BEZIER_ITERATIONS; ++i) {
+            if (bezier(s, x1, x2) < x) {
+                low = s;
+            }
+            else {
+                high = s;
+            }
+            s = (low + high) / 2;
+        }
+        return s;
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+/**
+ * <p>
+ * Positions of the viewport, header, header mirage and background for every millisecond of a
+ * smooth scroll of {@link PanoramaView}. The trajectory is planned once when a fling or snap
+ * starts, so each animation frame becomes a table lookup.
+ * </p>
+ * <p>
+ * NOTE: A trajectory is only valid for the geometry it was planned for, check it with
+ * {@link #isPlannedFor} before use.
+ * </p>
+ * @author jiaoye
+ *
+ */
+class FlingTrajectory {
+
+    static final int NO_SAMPLE = -1;
+    static final int NO_POSITION = Integer.MIN_VALUE;
+
+    private int[] mViewportLeft = new int[0];
+    private int[] mHeaderLeft = new int[0];
+    private int[] mHeaderMirageLeft = new int[0];
+    private int[] mBackgroundLeft = new int[0];
+    private int mSampleCount;
+
+    // geometry the trajectory is planned for
+    private int mViewportWidth;
+    private int mViewportHeight;
+    private int mContentWidth;
+    private int mHeaderWidth;
+
+    /**
+     * Start planning a trajectory of duration + 1 samples, the arrays are reused if they are
+     * large enough.
+     */
+    void reset(int duration, int viewportWidth, int viewportHeight, int contentWidth, int headerWidth) {
+        final int sampleCount = duration + 1;
+        if (mViewportLeft.length < sampleCount) {
+            mViewportLeft = new int[sampleCount];
+            mHeaderLeft = new int[sampleCount];
+            mHeaderMirageLeft = new int[sampleCount];
+            mBackgroundLeft = new int[sampleCount];
+        }
+        mSampleCount = sampleCount;
+        mViewportWidth = viewportWidth;
+        mViewportHeight = viewportHeight;
+        mContentWidth = contentWidth;
+        mHeaderWidth = headerWidth;
+    }
+
+    void set(int sample, int viewportLeft, int headerLeft, int headerMirageLeft, int backgroundLeft) {
+        mViewportLeft[sample] = viewportLeft;
+        mHeaderLeft[sample] = headerLeft;
+        mHeaderMirageLeft[sample] = headerMirageLeft;
+        mBackgroundLeft[sample] = backgroundLeft;
+    }
+
+    void invalidate() {
+        mSampleCount = 0;
+    }
+
+    boolean isPlannedFor(int viewportWidth, int viewportHeight, int contentWidth, int headerWidth) {
+        return mSampleCount > 0
+               && mViewportWidth == viewportWidth
+               && mViewportHeight == viewportHeight
+               && mContentWidth == contentWidth
+               && mHeaderWidth == headerWidth;
+    }
+
+    /**
+     * @param timePassed milliseconds since the scroll started
+     * @return the sample to look up, the last one if the scroll is over
+     */
+    int sampleAt(int timePassed) {
+        if (timePassed < 0) {
+            return 0;
+        }
+        return timePassed < mSampleCount ? timePassed : mSampleCount - 1;
+    }
+
+    int getSampleCount() {
+        return mSampleCount;
+    }
+
+    int getViewportLeft(int sample) {
+        return mViewportLeft[sample];
+    }
+
+    /**
+     * @return the left edge of the header, or NO_POSITION if the header is gone
+     */
+    int getHeaderLeft(int sample) {
+        return mHeaderLeft[sample];
+    }
+
+    /**
+     * @return the left edge of the header mirage, or NO_POSITION if it's not laid out
+     */
+    int getHeaderMirageLeft(int sample) {
+        return mHeaderMirageLeft[sample];
+    }
+
+    int getBackgroundLeft(int sample) {
+        return mBackgroundLeft[sample];
+    }
+}
@@ -3,42 +3,58 @@ package me.uframer.android.ui;
 import android.graphics.Camera;
 import android.graphics.Matrix;
 import android.view.animation.Animation;
+import android.view.animation.Interpolator;
 import android.view.animation.Transformation;
 
 public class FlipInAnimation extends Animation {
 
-    private class Interpolator implements android.view.animation.Interpolator {
-
-        @Override
-        public float getInterpolation(float t) {
-            return (1.0f - (1.0f - t) * (1.0f - t));
-        }
-    }
-
     private static final float FROM_DEGREES = 45.0f;
     private static final float TO_DEGREES = 0.0f;
     private static final float FROM_DEPTH = 100.0f;
     private static final float TO_DEPTH = 0.0f;
     private static final int DURATION = 500;
+    private static final float TRANSLATE_FRACTION = 0.25f; // of the width, when translating only
     private float mPivotX;
     private float mPivotY;
-    private Camera mCamera;
+    private int mWidth;
+    private final Camera mCamera = new Camera();
+    private boolean mTranslateOnly;
 
     public FlipInAnimation(float pivotX, float pivotY) {
+        this(pivotX, pivotY, Easing.quadraticOut());
+    }
+
+    /**
+     * @param interpolator the easing curve, e.g. one of {@link Easing}
+     */
+    public FlipInAnimation(float pivotX, float pivotY, Interpolator interpolator) {
         mPivotX = pivotX;
         mPivotY = pivotY;
         setDuration(DURATION);
-        setInterpolator(new Interpolator());
+        setInterpolator(interpolator);
+    }
+
+    /**
+     * Slide instead of flipping, e.g. when a panorama gave up flips to keep up the frame rate.
+     */
+    public void setTranslateOnly(boolean translateOnly) {
+        mTranslateOnly = translateOnly;
     }
 
     @Override
     public void initialize(int width, int height, int parentWidth, int parentHeight) {
         super.initialize(width, height, parentWidth, parentHeight);
-        mCamera = new Camera();
+        mWidth = width;
     }
 
     @Override
     protected void applyTransformation(float interpolatedTime, Transformation t) {
+        if (mTranslateOnly) {
+            // degraded by the quality governor of a panorama, slide in from the right instead
+            t.setAlpha(interpolatedTime);
+            t.getMatrix().setTranslate((1.0f - interpolatedTime) * mWidth * TRANSLATE_FRACTION, 0);
+            return;
+        }
 
         final float degrees = FROM_DEGREES + (TO_DEGREES - FROM_DEGREES) * interpolatedTime;
         final float depthZ = FROM_DEPTH + (TO_DEPTH - FROM_DEPTH) * interpolatedTime;
@@ -6,6 +6,7 @@ package me.uframer.android.ui;
 import android.graphics.Camera;
 import android.graphics.Matrix;
 import android.view.animation.Animation;
+import android.view.animation.Interpolator;
 import android.view.animation.Transformation;
 
 /**
@@ -18,41 +19,56 @@ import android.view.animation.Transformation;
  */
 public class FlipOutAnimation extends Animation {
 
-    private class Interpolator implements android.view.animation.Interpolator {
-        private final float TENSION = 1.0f;
-
-        @Override
-        public float getInterpolation(float t) {
-            return t * t * t * ((TENSION + 1) * t - TENSION);
-        }
-    }
-
+    private static final float TENSION = 1.0f;
     private static final float FROM_DEGREES = -0.0f;
     private static final float TO_DEGREES = -45.0f;
     private static final float FROM_DEPTH = 0.0f;
     private static final float TO_DEPTH = -100.0f;
     private static final int DURATION = 400;
+    private static final float TRANSLATE_FRACTION = 0.25f; // of the width, when translating only
     private float mPivotX;
     private float mPivotY;
-    private Camera mCamera;
+    private int mWidth;
+    private final Camera mCamera = new Camera();
+    private boolean mTranslateOnly;
 
     public FlipOutAnimation(float pivotX, float pivotY) {
+        this(pivotX, pivotY, Easing.backIn(TENSION));
+    }
+
+    /**
+     * @param interpolator the easing curve, e.g. one of {@link Easing}
+     */
+    public FlipOutAnimation(float pivotX, float pivotY, Interpolator interpolator) {
         mPivotX = pivotX;
         mPivotY = pivotY;
+        setInterpolator(interpolator);
+    }
+
+    /**
+     * Slide instead of flipping, e.g. when a panorama gave up flips to keep up the frame rate.
+     */
+    public void setTranslateOnly(boolean translateOnly) {
+        mTranslateOnly = translateOnly;
     }
 
     @Override
     public void initialize(int width, int height, int parentWidth, int parentHeight) {
         super.initialize(width, height, parentWidth, parentHeight);
-        mCamera = new Camera();
+        mWidth = width;
         setDuration(DURATION);
-        setInterpolator(new Interpolator());
         setFillBefore(true);
         setFillAfter(true);
     }
 
     @Override
     protected void applyTransformation(float interpolatedTime, Transformation t) {
+        if (mTranslateOnly) {
+            // degraded by the quality governor of a panorama, slide out to the left instead
+            t.setAlpha(1.0f - interpolatedTime);
+            t.getMatrix().setTranslate(-interpolatedTime * mWidth * TRANSLATE_FRACTION, 0);
+            return;
+        }
 
         final float degrees = FROM_DEGREES + (TO_DEGREES - FROM_DEGREES) * interpolatedTime;
         final float depthZ = FROM_DEPTH + (TO_DEPTH - FROM_DEPTH) * interpolatedTime;
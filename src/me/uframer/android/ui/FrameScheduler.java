@@ -0,0 +1,91 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.lang.reflect.Method;
+
+import android.os.Build;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * <p>
+ * Runs a task at most once per frame. However many times {@link #schedule()} is called before
+ * the next frame, the task runs only once.
+ * </p>
+ * <p>
+ * NOTE: View.postOnAnimation() is used on API level 16 and above so that the task runs right
+ * before the next vsync, older platforms fall back to View.post().
+ * </p>
+ * @author jiaoye
+ *
+ */
+class FrameScheduler {
+
+    private static final String LOG_TAG = FrameScheduler.class.toString();
+
+    private static Method sPostOnAnimation;
+
+    static {
+        if (Build.VERSION.SDK_INT >= 16) {
+            try {
+                sPostOnAnimation = View.class.getMethod("postOnAnimation", Runnable.class);
+            }
+            catch (NoSuchMethodException e) {
+                Log.w(LOG_TAG, "View.postOnAnimation is not available", e);
+            }
+        }
+    }
+
+    private final View mView;
+    private final Runnable mTask;
+    private final Runnable mFrame;
+    private final Object[] mArgs;
+    private boolean mIsScheduled;
+
+    FrameScheduler(View view, Runnable task) {
+        mView = view;
+        mTask = task;
+        mFrame = new Runnable() {
+            @Override
+            public void run() {
+                mIsScheduled = false;
+                mTask.run();
+            }
+        };
+        mArgs = new Object[] { mFrame };
+    }
+
+    /**
+     * Run the task in the next frame unless it's already scheduled.
+     */
+    void schedule() {
+        if (mIsScheduled) {
+            return;
+        }
+        mIsScheduled = true;
+        if (sPostOnAnimation != null) {
+            try {
+                sPostOnAnimation.invoke(mView, mArgs);
+                return;
+            }
+            catch (Exception e) {
+                Log.w(LOG_TAG, "failed to post on animation", e);
+                sPostOnAnimation = null;
+            }
+        }
+        mView.post(mFrame);
+    }
+
+    void cancel() {
+        if (mIsScheduled) {
+            mIsScheduled = false;
+            mView.removeCallbacks(mFrame);
+        }
+    }
+
+    boolean isScheduled() {
+        return mIsScheduled;
+    }
+}
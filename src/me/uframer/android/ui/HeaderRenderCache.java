@@ -0,0 +1,128 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * <p>
+ * A raster of the panorama header, rendered once per content change and blitted both at the
+ * header position and at the header mirage position, so the large title glyphs are not
+ * rasterized twice per frame while wrapping.
+ * </p>
+ * <p>
+ * NOTE: Changes of the header size are detected on their own, so are content changes from API
+ * level 11 on. Before that the owner has to call {@link #invalidate()} whenever the contents
+ * of the header change. The alpha of the header is read along with each render, setAlpha()
+ * marks the header dirty as well. Rasters are only meant for software canvases.
+ * </p>
+ * @author jiaoye
+ *
+ */
+class HeaderRenderCache implements MemoryBudget.Cache {
+
+    private static final String LOG_TAG = HeaderRenderCache.class.toString();
+
+    private final View mHeader;
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+    private boolean mIsDirty = true;
+    private int mAlpha = 255;
+    private long mAccessTime;
+
+    HeaderRenderCache(View header) {
+        mHeader = header;
+    }
+
+    void invalidate() {
+        mIsDirty = true;
+    }
+
+    /**
+     * @return the raster of the header, rendered again if it's out of date, or null if the
+     * header can't be rendered into a bitmap. The bitmap is still owned by the cache.
+     */
+    Bitmap get() {
+        final int width = mHeader.getWidth();
+        final int height = mHeader.getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        if (mBitmap != null && (mBitmap.getWidth() != width || mBitmap.getHeight() != height)) {
+            release();
+        }
+        if (mBitmap == null) {
+            try {
+                mBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            catch (OutOfMemoryError e) {
+                Log.w(LOG_TAG, "not enough memory to cache the header");
+                return null;
+            }
+            if (mCanvas == null) {
+                mCanvas = new Canvas();
+            }
+            mCanvas.setBitmap(mBitmap);
+            mIsDirty = true;
+        }
+        // the header is only drawn here, so it stays dirty from its last invalidation on
+        if (RenderCompat.isDirty(mHeader)) {
+            mIsDirty = true;
+        }
+        if (mIsDirty) {
+            TraceCompat.beginSection("HeaderRenderCache#render");
+            mBitmap.eraseColor(Color.TRANSPARENT);
+            mHeader.draw(mCanvas);
+            mAlpha = (int) (255 * RenderCompat.getAlpha(mHeader));
+            mIsDirty = false;
+            TraceCompat.endSection();
+        }
+        mAccessTime = SystemClock.uptimeMillis();
+        return mBitmap;
+    }
+
+    /**
+     * @return the alpha of the header as of the last render, to blit the raster with
+     */
+    int getAlpha() {
+        return mAlpha;
+    }
+
+    void release() {
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+        mIsDirty = true;
+    }
+
+    @Override
+    public String getName() {
+        return "header renders";
+    }
+
+    @Override
+    public long size() {
+        return mBitmap == null ? 0 : BitmapLruCache.sizeOf(mBitmap);
+    }
+
+    @Override
+    public long oldestAccessTime() {
+        return mBitmap == null ? Long.MAX_VALUE : mAccessTime;
+    }
+
+    @Override
+    public boolean evictOldest() {
+        if (mBitmap == null) {
+            return false;
+        }
+        release();
+        return true;
+    }
+}
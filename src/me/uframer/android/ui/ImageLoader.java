@@ -0,0 +1,556 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.ImageView;
+
+/**
+ * <p>
+ * Loads images into ImageViews of sections and tiles. Images are decoded on a small worker
+ * pool at the size of the target view, kept in a memory cache accounted by
+ * {@link MemoryBudget}, and stored already scaled in a disk cache of raw pixels that is
+ * memory-mapped back without decoding.
+ * </p>
+ * <p>
+ * NOTE: Requests of a section are parked when it leaves the panorama viewport and resumed
+ * when it comes back, requests of a recycled tile or a detached panorama are dropped, so the
+ * loader never keeps an activity alive through its views. Only one request is active per
+ * ImageView, a new one replaces it. All methods must be called on the UI thread.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public final class ImageLoader {
+
+    private static final String LOG_TAG = ImageLoader.class.toString();
+
+    private static final int DEFAULT_THREAD_COUNT = 2;
+    private static final int DEFAULT_MEMORY_CACHE_RATIO = 8; // of the maximum heap size
+    private static final long DEFAULT_DISK_CACHE_SIZE = 32 * 1024 * 1024;
+    private static final String DISK_CACHE_DIRECTORY = "uframer-images";
+    private static final int DISK_CACHE_MAGIC = 0x55464931; // UFI1
+    private static final int DISK_CACHE_HEADER_SIZE = 16; // magic, width, height, config
+
+    private static ImageLoader mInstance = null;
+
+    /*
+     * Loads one image on a worker thread.
+     */
+    private class Request implements Runnable {
+        final ImageView target;
+        final Uri uri;
+        final int width;
+        final int height;
+        final String key;
+        volatile boolean isCancelled;
+        volatile boolean isParked;
+        Future<?> future;
+
+        Request(ImageView target, Uri uri, int width, int height, String key) {
+            this.target = target;
+            this.uri = uri;
+            this.width = width;
+            this.height = height;
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            if (isCancelled || isParked) {
+                return;
+            }
+            Bitmap bitmap = readDiskCache(key);
+            if (bitmap == null && !isCancelled && !isParked) {
+                bitmap = decode(uri, width, height);
+                if (bitmap != null) {
+                    writeDiskCache(key, bitmap);
+                }
+            }
+            final Bitmap result = bitmap;
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Request.this, result);
+                }
+            });
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final ThreadPoolExecutor mExecutor;
+    private final BitmapLruCache<String> mMemoryCache;
+    private final HashMap<ImageView, Request> mRequests = new HashMap<ImageView, Request>();
+    private final int mDefaultSize;
+
+    // disk cache, guarded by itself
+    private final File mDiskCacheDirectory;
+    private long mDiskCacheMaxSize = DEFAULT_DISK_CACHE_SIZE;
+    private long mDiskCacheSize = -1;
+
+    private ImageLoader(Context context) {
+        final Context application = context.getApplicationContext();
+        mResolver = application.getContentResolver();
+        mHandler = new Handler(Looper.getMainLooper());
+        mExecutor = new ThreadPoolExecutor(DEFAULT_THREAD_COUNT, DEFAULT_THREAD_COUNT,
+                                           0, TimeUnit.MILLISECONDS,
+                                           new LinkedBlockingQueue<Runnable>(),
+                                           new ThreadFactory() {
+                                               @Override
+                                               public Thread newThread(Runnable r) {
+                                                   final Thread thread = new Thread(r, "ImageLoader");
+                                                   thread.setPriority(Thread.MIN_PRIORITY);
+                                                   return thread;
+                                               }
+                                           });
+        mMemoryCache = new BitmapLruCache<String>("images", Runtime.getRuntime().maxMemory() / DEFAULT_MEMORY_CACHE_RATIO, false);
+        MemoryBudget.getInstance().register(application, mMemoryCache);
+        mDiskCacheDirectory = new File(application.getCacheDir(), DISK_CACHE_DIRECTORY);
+        mDefaultSize = Math.max(application.getResources().getDisplayMetrics().widthPixels,
+                                application.getResources().getDisplayMetrics().heightPixels);
+    }
+
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new ImageLoader(context);
+        }
+
+        return mInstance;
+    }
+
+    /*
+     * @return the loader if one has been created, the library uses this to avoid creating one
+     */
+    static synchronized ImageLoader peekInstance() {
+        return mInstance;
+    }
+
+    /**
+     * Load an image at the size of the target, or at the size of its layout parameters if it's
+     * not laid out yet.
+     */
+    public void load(Uri uri, ImageView target) {
+        load(uri, target, 0, 0);
+    }
+
+    /**
+     * Load an image scaled down to fit into width x height. The target keeps showing what it
+     * shows until the image arrives.
+     */
+    public void load(Uri uri, ImageView target, int width, int height) {
+        cancel(target);
+        final int w = resolveTargetSize(width, target.getWidth(), target.getLayoutParams() == null ? 0 : target.getLayoutParams().width);
+        final int h = resolveTargetSize(height, target.getHeight(), target.getLayoutParams() == null ? 0 : target.getLayoutParams().height);
+        final String key = uri.toString() + '@' + w + 'x' + h;
+
+        // 1. memory cache
+        final Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            target.setImageBitmap(cached);
+            return;
+        }
+
+        // 2. disk cache or decoding on a worker
+        final Request request = new Request(target, uri, w, h, key);
+        mRequests.put(target, request);
+        if (isParkedByAncestor(target)) {
+            request.isParked = true;
+        }
+        else {
+            request.future = mExecutor.submit(request);
+        }
+    }
+
+    /**
+     * Drop the request of a target.
+     */
+    public void cancel(View target) {
+        final Request request = mRequests.remove(target);
+        if (request != null) {
+            cancel(request);
+        }
+    }
+
+    /*
+     * Drop the requests of a view and its descendants, e.g. a recycled tile.
+     */
+    void cancelWithin(View ancestor) {
+        if (mRequests.isEmpty()) {
+            return;
+        }
+        final Iterator<Request> it = mRequests.values().iterator();
+        while (it.hasNext()) {
+            final Request request = it.next();
+            if (isDescendant(request.target, ancestor)) {
+                it.remove();
+                cancel(request);
+            }
+        }
+    }
+
+    /*
+     * Hold back the requests within a section leaving the viewport.
+     */
+    void pauseWithin(View ancestor) {
+        for (Request request : mRequests.values()) {
+            if (!request.isParked && isDescendant(request.target, ancestor)) {
+                request.isParked = true;
+                if (request.future != null) {
+                    request.future.cancel(false);
+                    request.future = null;
+                }
+            }
+        }
+    }
+
+    /*
+     * Submit the requests within a section coming back into the viewport again.
+     */
+    void resumeWithin(View ancestor) {
+        for (Request request : mRequests.values()) {
+            if (request.isParked && isDescendant(request.target, ancestor)) {
+                request.isParked = false;
+                request.future = mExecutor.submit(request);
+            }
+        }
+    }
+
+    /**
+     * Set the maximum size in bytes of the disk cache.
+     */
+    public void setDiskCacheSize(long bytes) {
+        synchronized (mDiskCacheDirectory) {
+            mDiskCacheMaxSize = bytes;
+        }
+    }
+
+    /**
+     * Remove all cached images from memory and disk.
+     */
+    public void clearCache() {
+        mMemoryCache.evictAll();
+        synchronized (mDiskCacheDirectory) {
+            final File[] files = mDiskCacheDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            mDiskCacheSize = 0;
+        }
+    }
+
+    private void cancel(Request request) {
+        request.isCancelled = true;
+        if (request.future != null) {
+            request.future.cancel(false);
+            request.future = null;
+        }
+    }
+
+    /*
+     * Called on the UI thread when a worker is done.
+     */
+    private void deliver(Request request, Bitmap bitmap) {
+        if (bitmap == null) {
+            if (mRequests.get(request.target) == request) {
+                mRequests.remove(request.target);
+            }
+            return;
+        }
+        mMemoryCache.put(request.key, bitmap);
+        if (!request.isCancelled && mRequests.get(request.target) == request) {
+            mRequests.remove(request.target);
+            request.target.setImageBitmap(bitmap);
+        }
+    }
+
+    private int resolveTargetSize(int requested, int actual, int layout) {
+        if (requested > 0) {
+            return requested;
+        }
+        if (actual > 0) {
+            return actual;
+        }
+        if (layout > 0) {
+            return layout;
+        }
+        return mDefaultSize;
+    }
+
+    /*
+     * A target within a section out of the viewport starts parked.
+     */
+    private static boolean isParkedByAncestor(View target) {
+        ViewParent parent = target.getParent();
+        while (parent instanceof View) {
+            if (parent instanceof PanoramaSection) {
+                return !((PanoramaSection) parent).isInViewport();
+            }
+            parent = parent.getParent();
+        }
+        return false;
+    }
+
+    private static boolean isDescendant(View view, View ancestor) {
+        if (view == ancestor) {
+            return true;
+        }
+        ViewParent parent = view.getParent();
+        while (parent instanceof ViewGroup) {
+            if (parent == ancestor) {
+                return true;
+            }
+            parent = parent.getParent();
+        }
+        return false;
+    }
+
+    // ================================ worker thread ========================================
+
+    /*
+     * Decode the image subsampled to about the target size, then scale it down to fit.
+     */
+    private Bitmap decode(Uri uri, int width, int height) {
+        try {
+            // 1. bounds only
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            InputStream in = mResolver.openInputStream(uri);
+            try {
+                BitmapFactory.decodeStream(in, null, options);
+            }
+            finally {
+                in.close();
+            }
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            // 2. subsample by a power of two
+            int sampleSize = 1;
+            while (options.outWidth / (sampleSize * 2) >= width && options.outHeight / (sampleSize * 2) >= height) {
+                sampleSize *= 2;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            in = mResolver.openInputStream(uri);
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeStream(in, null, options);
+            }
+            finally {
+                in.close();
+            }
+            if (bitmap == null) {
+                return null;
+            }
+
+            // 3. scale down to fit
+            final float scale = Math.min((float) width / bitmap.getWidth(), (float) height / bitmap.getHeight());
+            if (scale < 1) {
+                final Bitmap scaled = Bitmap.createScaledBitmap(bitmap,
+                                                                Math.max(1, (int) (bitmap.getWidth() * scale)),
+                                                                Math.max(1, (int) (bitmap.getHeight() * scale)),
+                                                                true);
+                if (scaled != bitmap) {
+                    bitmap.recycle();
+                }
+                bitmap = scaled;
+            }
+            return bitmap;
+        }
+        catch (IOException e) {
+            Log.w(LOG_TAG, "failed to load " + uri, e);
+            return null;
+        }
+        catch (OutOfMemoryError e) {
+            Log.w(LOG_TAG, "not enough memory to load " + uri);
+            return null;
+        }
+    }
+
+    /*
+     * Map a cached image back into a bitmap, the file holds a header followed by raw pixels.
+     */
+    private Bitmap readDiskCache(String key) {
+        synchronized (mDiskCacheDirectory) {
+            final File file = new File(mDiskCacheDirectory, fileNameOf(key));
+            if (!file.exists()) {
+                return null;
+            }
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "r");
+                final FileChannel channel = raf.getChannel();
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != DISK_CACHE_MAGIC) {
+                    file.delete();
+                    return null;
+                }
+                final int width = buffer.getInt();
+                final int height = buffer.getInt();
+                final Bitmap.Config config = buffer.getInt() == 0 ? Bitmap.Config.ARGB_8888 : Bitmap.Config.RGB_565;
+                final Bitmap bitmap = Bitmap.createBitmap(width, height, config);
+                bitmap.copyPixelsFromBuffer(buffer);
+                file.setLastModified(System.currentTimeMillis());
+                return bitmap;
+            }
+            catch (Exception e) {
+                Log.w(LOG_TAG, "dropping broken cache file " + file, e);
+                file.delete();
+                return null;
+            }
+            catch (OutOfMemoryError e) {
+                return null;
+            }
+            finally {
+                if (raf != null) {
+                    try {
+                        raf.close();
+                    }
+                    catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeDiskCache(String key, Bitmap bitmap) {
+        final Bitmap.Config config = bitmap.getConfig() == Bitmap.Config.RGB_565 ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        if (bitmap.getConfig() != config) {
+            return; // only configs copyPixelsFromBuffer can restore
+        }
+        synchronized (mDiskCacheDirectory) {
+            if (!mDiskCacheDirectory.isDirectory() && !mDiskCacheDirectory.mkdirs()) {
+                return;
+            }
+            final File file = new File(mDiskCacheDirectory, fileNameOf(key));
+            final File temporary = new File(mDiskCacheDirectory, file.getName() + ".tmp");
+            FileOutputStream out = null;
+            try {
+                final ByteBuffer buffer = ByteBuffer.allocate(DISK_CACHE_HEADER_SIZE + bitmap.getRowBytes() * bitmap.getHeight());
+                buffer.putInt(DISK_CACHE_MAGIC);
+                buffer.putInt(bitmap.getWidth());
+                buffer.putInt(bitmap.getHeight());
+                buffer.putInt(config == Bitmap.Config.ARGB_8888 ? 0 : 1);
+                bitmap.copyPixelsToBuffer(buffer);
+                buffer.flip();
+                out = new FileOutputStream(temporary);
+                out.getChannel().write(buffer);
+                out.close();
+                out = null;
+                if (!temporary.renameTo(file)) {
+                    temporary.delete();
+                    return;
+                }
+                trimDiskCache(file.length());
+            }
+            catch (IOException e) {
+                Log.w(LOG_TAG, "failed to cache " + key, e);
+                temporary.delete();
+            }
+            catch (OutOfMemoryError e) {
+                temporary.delete();
+            }
+            finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    }
+                    catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * Delete the least recently used files until the disk cache fits. Called with the lock.
+     */
+    private void trimDiskCache(long added) {
+        final File[] files = mDiskCacheDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (mDiskCacheSize < 0) {
+            mDiskCacheSize = 0;
+            for (File file : files) {
+                mDiskCacheSize += file.length();
+            }
+        }
+        else {
+            mDiskCacheSize += added;
+        }
+        if (mDiskCacheSize <= mDiskCacheMaxSize) {
+            return;
+        }
+        final ArrayList<File> oldest = new ArrayList<File>(files.length);
+        for (File file : files) {
+            oldest.add(file);
+        }
+        Collections.sort(oldest, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                final long d = a.lastModified() - b.lastModified();
+                return d < 0 ? -1 : (d > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < oldest.size() && mDiskCacheSize > mDiskCacheMaxSize; ++i) {
+            final long length = oldest.get(i).length();
+            if (oldest.get(i).delete()) {
+                mDiskCacheSize -= length;
+            }
+        }
+    }
+
+    private static String fileNameOf(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes());
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode()) + '_' + key.length();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.util.ArrayList;
+
+import android.graphics.Rect;
+import android.view.View;
+import android.view.animation.Animation;
+
+/**
+ * <p>
+ * Runs content swaps of live tiles inside a {@link PanoramaView} as a
+ * {@link FlipOutAnimation} / {@link FlipInAnimation} pair. A swap only runs while its tile is
+ * inside the panorama viewport, at most a given number of tiles flip at the same time, and
+ * nothing flips while the panorama is dragged or flung.
+ * </p>
+ * <p>
+ * NOTE: A tile has at most one pending swap, scheduling another one replaces it, so a tile
+ * out of sight for a while flips only once when it comes back with its latest content. Swaps
+ * of a tile recycled by a {@link TileGridView} are dropped along with it.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public class LiveTileScheduler {
+
+    private static final int DEFAULT_MAX_CONCURRENT_FLIPS = 2;
+
+    /**
+     * Changes the content of a tile, called between flipping out and flipping in.
+     */
+    public static interface ContentSwap {
+        void swap(View tile);
+    }
+
+    /*
+     * A running flip of a tile.
+     */
+    private class Flip implements Animation.AnimationListener {
+        final View tile;
+        final ContentSwap swap;
+        FlipInAnimation in;
+        boolean isSwapped;
+        boolean isFinished;
+
+        Flip(View tile, ContentSwap swap) {
+            this.tile = tile;
+            this.swap = swap;
+        }
+
+        /*
+         * Both halves are created here, so that no frame of the flip allocates them.
+         */
+        void start() {
+            final boolean translateOnly = mPanorama.isFlipTranslateOnly();
+            final FlipOutAnimation out = new FlipOutAnimation(0, tile.getHeight() / 2);
+            out.setTranslateOnly(translateOnly);
+            out.setAnimationListener(this);
+            in = new FlipInAnimation(0, tile.getHeight() / 2);
+            in.setTranslateOnly(translateOnly);
+            in.setAnimationListener(this);
+            tile.startAnimation(out);
+        }
+
+        /*
+         * Stop right away without swapping, the tile shows another item now.
+         */
+        void abandon() {
+            isFinished = true;
+            isSwapped = true;
+            tile.clearAnimation();
+        }
+
+        /*
+         * Stop right away, the content is swapped anyway.
+         */
+        void finish() {
+            isFinished = true;
+            tile.clearAnimation();
+            if (!isSwapped) {
+                isSwapped = true;
+                swap.swap(tile);
+            }
+        }
+
+        @Override
+        public void onAnimationStart(Animation animation) {
+        }
+
+        @Override
+        public void onAnimationEnd(Animation animation) {
+            if (isFinished) {
+                return;
+            }
+            if (!isSwapped) {
+                isSwapped = true;
+                swap.swap(tile);
+                tile.startAnimation(in);
+            }
+            else {
+                mRunningFlips.remove(this);
+                pump();
+            }
+        }
+
+        @Override
+        public void onAnimationRepeat(Animation animation) {
+        }
+    }
+
+    private final PanoramaView mPanorama;
+    // pending swaps in the order they were scheduled, mPendingSwaps[i] belongs to mPendingTiles[i]
+    private final ArrayList<View> mPendingTiles = new ArrayList<View>();
+    private final ArrayList<ContentSwap> mPendingSwaps = new ArrayList<ContentSwap>();
+    private final ArrayList<Flip> mRunningFlips = new ArrayList<Flip>();
+    private final Rect mVisibleRect = new Rect();
+    private int mMaxConcurrentFlips = DEFAULT_MAX_CONCURRENT_FLIPS;
+    private boolean mIsPaused;
+
+    public LiveTileScheduler(PanoramaView panorama) {
+        mPanorama = panorama;
+        mPanorama.addLiveTileScheduler(this);
+    }
+
+    /**
+     * Queue a content swap for a tile inside the panorama, replacing the pending one if any.
+     */
+    public void schedule(View tile, ContentSwap swap) {
+        removePendingSwap(tile);
+        mPendingTiles.add(tile);
+        mPendingSwaps.add(swap);
+        pump();
+    }
+
+    /**
+     * Drop the pending swap of a tile, a running flip completes.
+     */
+    public void cancel(View tile) {
+        removePendingSwap(tile);
+    }
+
+    public void setMaxConcurrentFlips(int max) {
+        if (max <= 0) {
+            throw new Error("at least one flip must be allowed");
+        }
+        mMaxConcurrentFlips = max;
+        pump();
+    }
+
+    public int getMaxConcurrentFlips() {
+        return mMaxConcurrentFlips;
+    }
+
+    /**
+     * Hold back all swaps, e.g. while the hosting activity is paused.
+     */
+    public void pause() {
+        mIsPaused = true;
+        finishRunningFlips();
+    }
+
+    public void resume() {
+        mIsPaused = false;
+        pump();
+    }
+
+    /**
+     * Stop scheduling for good and drop all pending swaps.
+     */
+    public void release() {
+        mPendingTiles.clear();
+        mPendingSwaps.clear();
+        finishRunningFlips();
+        mPanorama.removeLiveTileScheduler(this);
+    }
+
+    /*
+     * Called by PanoramaView when a TileGridView recycles a tile, the swaps scheduled for it
+     * belong to the item it showed.
+     */
+    void onTileRecycled(View tile) {
+        removePendingSwap(tile);
+        final int index = indexOfRunningFlip(tile);
+        if (index >= 0) {
+            mRunningFlips.remove(index).abandon();
+            pump();
+        }
+    }
+
+    /*
+     * Called by PanoramaView whenever it lays out its sections at rest, e.g. after
+     * setCurrentSection() or a wrap, so that tiles coming into sight start their swaps.
+     */
+    void onViewportChanged() {
+        pump();
+    }
+
+    /*
+     * Called by PanoramaView when it starts or stops dragging/flinging.
+     */
+    void onPanoramaScrolling(boolean scrolling) {
+        if (scrolling) {
+            finishRunningFlips();
+        }
+        else {
+            pump();
+        }
+    }
+
+    /*
+     * Start flips of visible tiles with pending swaps until the limit is reached.
+     */
+    private void pump() {
+        if (mIsPaused || mPanorama.getScrollState() != PanoramaView.SCROLL_STATE_IDLE) {
+            return;
+        }
+        int i = 0;
+        while (mRunningFlips.size() < mMaxConcurrentFlips && i < mPendingTiles.size()) {
+            final View tile = mPendingTiles.get(i);
+            if (indexOfRunningFlip(tile) >= 0 || !isInViewport(tile)) {
+                i++;
+                continue;
+            }
+            mPendingTiles.remove(i);
+            final Flip flip = new Flip(tile, mPendingSwaps.remove(i));
+            mRunningFlips.add(flip);
+            flip.start();
+        }
+    }
+
+    private void finishRunningFlips() {
+        for (int i = 0; i < mRunningFlips.size(); ++i) {
+            mRunningFlips.get(i).finish();
+        }
+        mRunningFlips.clear();
+    }
+
+    private void removePendingSwap(View tile) {
+        final int index = mPendingTiles.indexOf(tile);
+        if (index >= 0) {
+            mPendingTiles.remove(index);
+            mPendingSwaps.remove(index);
+        }
+    }
+
+    private int indexOfRunningFlip(View tile) {
+        for (int i = 0; i < mRunningFlips.size(); ++i) {
+            if (mRunningFlips.get(i).tile == tile) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * A tile is in the viewport if any part of it is on the screen, the panorama clips its
+     * sections to the viewport.
+     */
+    private boolean isInViewport(View tile) {
+        return tile.isShown() && tile.getGlobalVisibleRect(mVisibleRect);
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.os.Build;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * <p>
+ * A process-wide memory budget shared by the caches of the library. Every cache registers
+ * itself and reports its size, whenever the total exceeds the ceiling the least recently
+ * used entries are evicted across all caches.
+ * </p>
+ * <p>
+ * NOTE: ComponentCallbacks2 is only available at API level 14 and above. On these platforms
+ * the budget follows onTrimMemory() of the application on its own, on older platforms it only
+ * reacts to onLowMemory() calls forwarded to {@link #onTrimMemory}. The budget and the caches
+ * it evicts from are not thread-safe, so it must only be used on the UI thread, which is
+ * checked.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public final class MemoryBudget {
+
+    private static final String LOG_TAG = MemoryBudget.class.toString();
+
+    private static final int DEFAULT_BUDGET_RATIO = 8; // of the maximum heap size
+
+    // trim levels of ComponentCallbacks2, which is not available at API level 10
+    public static final int TRIM_MEMORY_RUNNING_MODERATE = 5;
+    public static final int TRIM_MEMORY_RUNNING_LOW = 10;
+    public static final int TRIM_MEMORY_RUNNING_CRITICAL = 15;
+    public static final int TRIM_MEMORY_UI_HIDDEN = 20;
+    public static final int TRIM_MEMORY_BACKGROUND = 40;
+    public static final int TRIM_MEMORY_MODERATE = 60;
+    public static final int TRIM_MEMORY_COMPLETE = 80;
+
+    /**
+     * A cache accounted by the budget.
+     */
+    public static interface Cache {
+        /**
+         * @return the name usage is reported under, caches of the same name are summed up
+         */
+        String getName();
+
+        /**
+         * @return the current size in bytes
+         */
+        long size();
+
+        /**
+         * @return the last access time of the least recently used evictable entry as
+         * SystemClock.uptimeMillis(), or Long.MAX_VALUE if nothing can be evicted
+         */
+        long oldestAccessTime();
+
+        /**
+         * Evict the least recently used evictable entry.
+         * @return false if nothing was evicted
+         */
+        boolean evictOldest();
+    }
+
+    private static MemoryBudget mInstance = null;
+
+    private final ArrayList<Cache> mCaches = new ArrayList<Cache>();
+    private long mMaxSize;
+    private boolean mCallbacksRegistered;
+
+    private MemoryBudget() {
+        mMaxSize = Runtime.getRuntime().maxMemory() / DEFAULT_BUDGET_RATIO;
+    }
+
+    public static MemoryBudget getInstance() {
+        if (mInstance == null) {
+            mInstance = new MemoryBudget();
+        }
+
+        return mInstance;
+    }
+
+    /**
+     * Start accounting a cache. The context is used to follow the trim callbacks of the
+     * application.
+     */
+    public void register(Context context, Cache cache) {
+        checkThread();
+        if (!mCaches.contains(cache)) {
+            mCaches.add(cache);
+        }
+        if (!mCallbacksRegistered && context != null) {
+            registerComponentCallbacks(context.getApplicationContext());
+        }
+        enforce();
+    }
+
+    public void unregister(Cache cache) {
+        checkThread();
+        mCaches.remove(cache);
+    }
+
+    /**
+     * Evict entries until the total size fits into the budget. Caches call this after they
+     * grow.
+     */
+    public void enforce() {
+        trimToSize(mMaxSize);
+    }
+
+    /**
+     * Evict the least recently used entries across all caches until the total size is not
+     * larger than maxSize.
+     */
+    public void trimToSize(long maxSize) {
+        checkThread();
+        long size = getTotalSize();
+        while (size > maxSize) {
+            // 1. find the cache holding the least recently used entry
+            Cache oldest = null;
+            long oldestTime = Long.MAX_VALUE;
+            for (Cache cache : mCaches) {
+                final long time = cache.oldestAccessTime();
+                if (time < oldestTime) {
+                    oldest = cache;
+                    oldestTime = time;
+                }
+            }
+            if (oldest == null) {
+                return; // nothing evictable left
+            }
+
+            // 2. evict it
+            final long before = oldest.size();
+            if (!oldest.evictOldest()) {
+                return;
+            }
+            size -= before - oldest.size();
+        }
+    }
+
+    /**
+     * Release memory according to the trim level of ComponentCallbacks2.onTrimMemory().
+     */
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            trimToSize(0);
+        }
+        else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(mMaxSize / 2);
+        }
+    }
+
+    public long getTotalSize() {
+        long size = 0;
+        for (Cache cache : mCaches) {
+            size += cache.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the current size in bytes of every cache by name
+     */
+    public Map<String, Long> getUsage() {
+        final LinkedHashMap<String, Long> usage = new LinkedHashMap<String, Long>();
+        for (Cache cache : mCaches) {
+            final Long size = usage.get(cache.getName());
+            usage.put(cache.getName(), (size == null ? 0 : size) + cache.size());
+        }
+        return usage;
+    }
+
+    public long getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Set the ceiling in bytes of all library caches together.
+     */
+    public void setMaxSize(long maxSize) {
+        mMaxSize = maxSize;
+        enforce();
+    }
+
+    /*
+     * Caches evicted by the budget are only touched on the UI thread, e.g. MirageView requests
+     * a layout when its snapshot is dropped.
+     */
+    private static void checkThread() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new Error("MemoryBudget can only be used on the UI thread");
+        }
+    }
+
+    /*
+     * Listen to ComponentCallbacks2 of the application through a dynamic proxy, since the
+     * interface can't be referenced at API level 10.
+     */
+    private void registerComponentCallbacks(Context context) {
+        mCallbacksRegistered = true;
+        if (Build.VERSION.SDK_INT < 14) {
+            return;
+        }
+        try {
+            final Class<?> callbacks2 = Class.forName("android.content.ComponentCallbacks2");
+            final Object proxy = Proxy.newProxyInstance(callbacks2.getClassLoader(),
+                    new Class<?>[] { callbacks2 },
+                    new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            final String name = method.getName();
+                            if (name.equals("onTrimMemory")) {
+                                onTrimMemory((Integer) args[0]);
+                            }
+                            else if (name.equals("onLowMemory")) {
+                                onTrimMemory(TRIM_MEMORY_COMPLETE);
+                            }
+                            else if (name.equals("hashCode")) {
+                                return System.identityHashCode(proxy);
+                            }
+                            else if (name.equals("equals")) {
+                                return proxy == args[0];
+                            }
+                            else if (name.equals("toString")) {
+                                return LOG_TAG;
+                            }
+                            return null;
+                        }
+                    });
+            Context.class.getMethod("registerComponentCallbacks", ComponentCallbacks.class).invoke(context, proxy);
+        }
+        catch (Exception e) {
+            Log.w(LOG_TAG, "failed to register trim memory callbacks", e);
+        }
+    }
+}
@@ -8,7 +8,9 @@ import android.app.Activity;
 import android.content.res.TypedArray;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
 import android.graphics.Rect;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
@@ -47,9 +49,38 @@ class MirageView extends View {
     private Canvas mCanvas;
     private Bitmap mBitmap;
     private boolean mFrozen;
-    private Rect mClippingRect;
+    private final Rect mClippingRect = new Rect();
     private int mClippingOffset;
     private ClippingType mClippingType;
+    private long mFrozenTime;
+    // accounts the snapshot in MemoryBudget while frozen
+    private final MemoryBudget.Cache mBudgetEntry = new MemoryBudget.Cache() {
+        @Override
+        public String getName() {
+            return "mirage snapshots";
+        }
+
+        @Override
+        public long size() {
+            return mBitmap == null ? 0 : BitmapLruCache.sizeOf(mBitmap);
+        }
+
+        @Override
+        public long oldestAccessTime() {
+            return mFrozen ? mFrozenTime : Long.MAX_VALUE;
+        }
+
+        @Override
+        public boolean evictOldest() {
+            if (!mFrozen) {
+                return false;
+            }
+            unfreeze();
+            requestLayout();
+            invalidate();
+            return true;
+        }
+    };
 
     /**
      * @param context
@@ -69,7 +100,7 @@ class MirageView extends View {
     public MirageView(Context context, View view, Rect clip) {
         super(context);
         mView = view;
-        mClippingRect = clip;
+        mClippingRect.set(clip);
         mClippingType = ClippingType.RECT;
     }
 
@@ -135,11 +166,24 @@ class MirageView extends View {
         }
     }
 
+    /*
+     * Draw a raster of the original view, e.g. a shared render cache, in place of this view
+     * with the clipping applied. The canvas is in the coordinates of the parent.
+     */
+    void drawRender(Canvas canvas, Bitmap render, Paint paint) {
+        canvas.save();
+        canvas.translate(getLeft(), getTop());
+        canvas.clipRect(0, 0, mClippingRect.width(), mClippingRect.height());
+        canvas.drawBitmap(render, -mClippingRect.left, -mClippingRect.top, paint);
+        canvas.restore();
+    }
+
     /*
      * <p>Take a snapshot of the original view and freeze the state.</p>
      * <p>NOTE: The original view must have been measured before you call this method.</p>
      */
     public void freeze() {
+        TraceCompat.beginSection("MirageView#freeze");
         final View v = getView();
         constructClippingRect(v.getMeasuredWidth(), v.getMeasuredHeight());
         mCanvas = new Canvas();
@@ -150,34 +194,42 @@ class MirageView extends View {
         v.draw(mCanvas);
         mCanvas.translate(mClippingRect.left, mClippingRect.top);
         mFrozen = true;
+        mFrozenTime = SystemClock.uptimeMillis();
+        MemoryBudget.getInstance().register(getContext(), mBudgetEntry);
+        TraceCompat.endSection();
     }
 
     /*
      * <p>Release the resources.</p>
      */
     public void unfreeze() {
+        MemoryBudget.getInstance().unregister(mBudgetEntry);
         mCanvas = null;
         mBitmap.recycle();
         mBitmap = null;
         mFrozen = false;
     }
 
+    public boolean isFrozen() {
+        return mFrozen;
+    }
+
     private void constructClippingRect(int mw, int mh) {
         switch (mClippingType) {
         case LEFT:
-            mClippingRect = new Rect(0, 0, (mClippingOffset < mw ? mClippingOffset : mw), mh);
+            mClippingRect.set(0, 0, (mClippingOffset < mw ? mClippingOffset : mw), mh);
             break;
         case RIGHT:
-            mClippingRect = new Rect((mClippingOffset < mw ? mw - mClippingOffset : 0), 0, mw, mh);
+            mClippingRect.set((mClippingOffset < mw ? mw - mClippingOffset : 0), 0, mw, mh);
             break;
         case TOP:
-            mClippingRect = new Rect(0, 0, mw, (mClippingOffset < mh ? mClippingOffset : mh));
+            mClippingRect.set(0, 0, mw, (mClippingOffset < mh ? mClippingOffset : mh));
             break;
         case BOTTOM:
-            mClippingRect = new Rect(0, (mClippingOffset < mh ? mh - mClippingOffset : 0), mw, mh);
+            mClippingRect.set(0, (mClippingOffset < mh ? mh - mClippingOffset : 0), mw, mh);
             break;
         case NONE:
-            mClippingRect = new Rect(0, 0, mw, mh);
+            mClippingRect.set(0, 0, mw, mh);
             break;
         }
     }
@@ -0,0 +1,332 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.util.ArrayList;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * <p>
+ * The overview mode of a {@link PanoramaView}: one horizontal strip with a downscaled
+ * thumbnail of every section, drawn by the panorama in place of its children. Thumbnails are
+ * rendered one per frame, from the cached snapshot of a section if there is one, and kept in
+ * a bounded cache accounted by {@link MemoryBudget}.
+ * </p>
+ * <p>
+ * NOTE: Sections without a thumbnail yet are drawn as placeholders, those visible in the strip
+ * are rendered first. Thumbnails of sections in the panorama viewport are rendered again every
+ * time the overview is shown since they are live. A section whose thumbnail fails to render
+ * keeps its placeholder until the overview is shown again.
+ * </p>
+ * @author jiaoye
+ *
+ */
+class PanoramaOverview {
+
+    private static final String LOG_TAG = PanoramaOverview.class.toString();
+
+    static final float DEFAULT_THUMBNAIL_SCALE = 0.25f;
+    private static final int DEFAULT_THUMBNAIL_CACHE_RATIO = 32; // of the maximum heap size
+    private static final int THUMBNAIL_SPACING = 16;
+    private static final int PLACEHOLDER_COLOR = 0x33ffffff;
+    private static final int HIGHLIGHT_COLOR = 0xccffffff;
+
+    static final int NO_SECTION = -1;
+
+    private final View mPanorama;
+    private final ArrayList<PanoramaSection> mSections;
+    private final BitmapLruCache<PanoramaSection> mSnapshots;
+    private final BitmapLruCache<PanoramaSection> mThumbnails;
+    private final FrameScheduler mThumbnailScheduler;
+    // sections whose thumbnail failed to render since the overview was shown
+    private final ArrayList<PanoramaSection> mSkippedSections = new ArrayList<PanoramaSection>();
+    private final Canvas mCanvas = new Canvas();
+    private final Paint mThumbnailPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Paint mPlaceholderPaint = new Paint();
+    private final Paint mHighlightPaint = new Paint();
+    private final Rect mRect = new Rect();
+    private float mScale = DEFAULT_THUMBNAIL_SCALE;
+    private boolean mIsShowing;
+    private int mCurrentIndex = NO_SECTION;
+    private int mOffset; // left edge of the viewport along the strip
+
+    /**
+     * @param sections the sections of the panorama, read on every frame
+     * @param snapshots the section snapshots of the panorama, thumbnails are scaled from them
+     */
+    PanoramaOverview(View panorama, ArrayList<PanoramaSection> sections, BitmapLruCache<PanoramaSection> snapshots) {
+        mPanorama = panorama;
+        mSections = sections;
+        mSnapshots = snapshots;
+        mThumbnails = new BitmapLruCache<PanoramaSection>("overview thumbnails", Runtime.getRuntime().maxMemory() / DEFAULT_THUMBNAIL_CACHE_RATIO);
+        mThumbnailScheduler = new FrameScheduler(panorama, new Runnable() {
+            @Override
+            public void run() {
+                renderNextThumbnail();
+            }
+        });
+        mPlaceholderPaint.setColor(PLACEHOLDER_COLOR);
+        mHighlightPaint.setColor(HIGHLIGHT_COLOR);
+        mHighlightPaint.setStyle(Paint.Style.STROKE);
+        mHighlightPaint.setStrokeWidth(2);
+    }
+
+    MemoryBudget.Cache getThumbnailCache() {
+        return mThumbnails;
+    }
+
+    void setThumbnailScale(float scale) {
+        if (scale <= 0 || scale > 1) {
+            throw new Error("thumbnail scale must be in (0, 1]");
+        }
+        if (scale != mScale) {
+            mScale = scale;
+            mThumbnails.evictAll();
+        }
+    }
+
+    float getThumbnailScale() {
+        return mScale;
+    }
+
+    boolean isShowing() {
+        return mIsShowing;
+    }
+
+    /**
+     * Show the strip centered on the given section.
+     */
+    void show(int currentIndex) {
+        mIsShowing = true;
+        mCurrentIndex = currentIndex;
+        mSkippedSections.clear();
+        for (PanoramaSection ps : mSections) {
+            if (ps.isInViewport()) {
+                dropThumbnail(ps);
+            }
+        }
+        final int viewportWidth = mPanorama.getWidth();
+        if (currentIndex != NO_SECTION && mSections.get(currentIndex).getVisibility() != View.GONE) {
+            mOffset = getThumbnailLeft(currentIndex) + getThumbnailWidth(mSections.get(currentIndex)) / 2 - viewportWidth / 2;
+        }
+        else {
+            mOffset = 0;
+        }
+        mOffset = clampOffset(mOffset);
+        mThumbnailScheduler.schedule();
+    }
+
+    void hide() {
+        mIsShowing = false;
+        mThumbnailScheduler.cancel();
+    }
+
+    /**
+     * Drop all thumbnails, e.g. when the panorama is detached.
+     */
+    void release() {
+        hide();
+        mThumbnails.evictAll();
+    }
+
+    /**
+     * Drop the thumbnail of a section whose contents changed.
+     */
+    void invalidateSection(PanoramaSection ps) {
+        final boolean wasSkipped = mSkippedSections.remove(ps);
+        if ((dropThumbnail(ps) || wasSkipped) && mIsShowing) {
+            mThumbnailScheduler.schedule();
+        }
+    }
+
+    private boolean dropThumbnail(PanoramaSection ps) {
+        final Bitmap thumbnail = mThumbnails.remove(ps);
+        if (thumbnail == null) {
+            return false;
+        }
+        thumbnail.recycle();
+        return true;
+    }
+
+    void scrollBy(int dx) {
+        mOffset = clampOffset(mOffset + dx);
+    }
+
+    /**
+     * Draw the strip, the canvas is in the coordinates of the panorama content.
+     * @param viewportLeft the scroll offset of the panorama
+     */
+    void draw(Canvas canvas, int viewportLeft) {
+        final int viewportWidth = mPanorama.getWidth();
+        final int viewportHeight = mPanorama.getHeight();
+        int left = -mOffset;
+        for (int i = 0; i < mSections.size(); ++i) {
+            final PanoramaSection ps = mSections.get(i);
+            if (ps.getVisibility() == View.GONE) {
+                continue;
+            }
+            final int width = getThumbnailWidth(ps);
+            final int height = getThumbnailHeight(ps);
+            if (left + width > 0 && left < viewportWidth) {
+                final int top = (viewportHeight - height) / 2;
+                mRect.set(viewportLeft + left, top, viewportLeft + left + width, top + height);
+                final Bitmap thumbnail = mThumbnails.get(ps);
+                if (thumbnail != null) {
+                    canvas.drawBitmap(thumbnail, null, mRect, mThumbnailPaint);
+                }
+                else {
+                    canvas.drawRect(mRect, mPlaceholderPaint);
+                }
+                if (i == mCurrentIndex) {
+                    canvas.drawRect(mRect, mHighlightPaint);
+                }
+            }
+            left += width + THUMBNAIL_SPACING;
+        }
+    }
+
+    /**
+     * @param x the position in the viewport
+     * @param y the position in the viewport
+     * @return the index of the section whose thumbnail is under the point, or NO_SECTION
+     */
+    int findSectionAt(float x, float y) {
+        final int viewportHeight = mPanorama.getHeight();
+        int left = -mOffset;
+        for (int i = 0; i < mSections.size(); ++i) {
+            final PanoramaSection ps = mSections.get(i);
+            if (ps.getVisibility() == View.GONE) {
+                continue;
+            }
+            final int width = getThumbnailWidth(ps);
+            final int height = getThumbnailHeight(ps);
+            final int top = (viewportHeight - height) / 2;
+            if (left <= x && x < left + width && top <= y && y < top + height) {
+                return i;
+            }
+            left += width + THUMBNAIL_SPACING;
+        }
+        return NO_SECTION;
+    }
+
+    private int getThumbnailWidth(PanoramaSection ps) {
+        return (int) (ps.getMeasuredWidth() * mScale);
+    }
+
+    private int getThumbnailHeight(PanoramaSection ps) {
+        return (int) (ps.getMeasuredHeight() * mScale);
+    }
+
+    private int getThumbnailLeft(int index) {
+        int left = 0;
+        for (int i = 0; i < index; ++i) {
+            final PanoramaSection ps = mSections.get(i);
+            if (ps.getVisibility() != View.GONE) {
+                left += getThumbnailWidth(ps) + THUMBNAIL_SPACING;
+            }
+        }
+        return left;
+    }
+
+    private int getStripWidth() {
+        final int width = getThumbnailLeft(mSections.size());
+        return width > 0 ? width - THUMBNAIL_SPACING : 0;
+    }
+
+    /*
+     * A strip narrower than the viewport is centered, a wider one can't scroll past its ends.
+     */
+    private int clampOffset(int offset) {
+        final int stripWidth = getStripWidth();
+        final int viewportWidth = mPanorama.getWidth();
+        if (stripWidth <= viewportWidth) {
+            return (stripWidth - viewportWidth) / 2;
+        }
+        return Math.max(0, Math.min(offset, stripWidth - viewportWidth));
+    }
+
+    /*
+     * Render one missing thumbnail, visible ones first, and come back in the next frame if
+     * more are missing.
+     */
+    private void renderNextThumbnail() {
+        if (!mIsShowing) {
+            return;
+        }
+        PanoramaSection next = null;
+        boolean isMissingMore = false;
+        final int viewportWidth = mPanorama.getWidth();
+        int left = -mOffset;
+        boolean isNextVisible = false;
+        for (PanoramaSection ps : mSections) {
+            if (ps.getVisibility() == View.GONE) {
+                continue;
+            }
+            final int width = getThumbnailWidth(ps);
+            final boolean isVisible = left + width > 0 && left < viewportWidth;
+            left += width + THUMBNAIL_SPACING;
+            if (mThumbnails.get(ps) != null || mSkippedSections.contains(ps)) {
+                continue;
+            }
+            if (next == null || (isVisible && !isNextVisible)) {
+                isMissingMore |= next != null;
+                next = ps;
+                isNextVisible = isVisible;
+            }
+            else {
+                isMissingMore = true;
+            }
+        }
+        if (next == null) {
+            return;
+        }
+        final Bitmap thumbnail = renderThumbnail(next);
+        if (thumbnail != null) {
+            mThumbnails.put(next, thumbnail);
+            mPanorama.invalidate();
+        }
+        else {
+            // keep the placeholder, the others still get their thumbnails
+            mSkippedSections.add(next);
+        }
+        if (isMissingMore) {
+            mThumbnailScheduler.schedule();
+        }
+    }
+
+    private Bitmap renderThumbnail(PanoramaSection ps) {
+        final int width = getThumbnailWidth(ps);
+        final int height = getThumbnailHeight(ps);
+        if (width <= 0 || height <= 0 || ps.getWidth() <= 0 || ps.getHeight() <= 0) {
+            return null;
+        }
+        final Bitmap thumbnail;
+        try {
+            thumbnail = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        catch (OutOfMemoryError e) {
+            Log.w(LOG_TAG, "not enough memory for the thumbnail of a section");
+            return null;
+        }
+        mCanvas.setBitmap(thumbnail);
+        mCanvas.save();
+        mCanvas.scale((float) width / ps.getWidth(), (float) height / ps.getHeight());
+        final Bitmap snapshot = mSnapshots.get(ps);
+        if (snapshot != null && !snapshot.isRecycled()
+                && snapshot.getWidth() == ps.getWidth() && snapshot.getHeight() == ps.getHeight()) {
+            mCanvas.drawBitmap(snapshot, 0, 0, mThumbnailPaint);
+        }
+        else {
+            ps.drawContents(mCanvas);
+        }
+        mCanvas.restore();
+        return thumbnail;
+    }
+}
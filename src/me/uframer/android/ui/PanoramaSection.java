@@ -6,16 +6,17 @@ package me.uframer.android.ui;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
-import android.util.TypedValue;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
-import android.widget.TextView;
 
 /**
  * @author jiaoye
@@ -31,13 +32,29 @@ public class PanoramaSection extends ViewGroup {
         SYNCED,
     }
 
+    /**
+     * Controls when the drawing cache of a section is enabled.
+     */
+    public static enum DrawingCachePolicy {
+        /** never cache */
+        NONE,
+        /** cache only while the panorama is being dragged or flung */
+        SCROLLING,
+        /** always cache */
+        ALWAYS,
+        /** cache only while the section intersects the viewport, evict the cache once it leaves */
+        VISIBLE,
+    }
+
     private static final int INVALID_RESOURCE_ID = -1;
+    private static final SlidingStyle[] SLIDING_STYLES = SlidingStyle.values();
+    private static final DrawingCachePolicy[] DRAWING_CACHE_POLICIES = DrawingCachePolicy.values();
 
     private static final int DEFAULT_TITLE_COLOR = Color.WHITE;
     private static final int DEFAULT_TITLE_SIZE = 48;
     private static final int DEFAULT_TITLE_PADDING_LEFT = 10;
 
-    private int mCustomHeaderId;
+    private int mCustomHeaderId = INVALID_RESOURCE_ID;
     private View mHeader;
     private View mContent;
     private String mTitle;
@@ -45,55 +62,70 @@ public class PanoramaSection extends ViewGroup {
     private Drawable mTitleIcon;
     private UIContext mUIContext;
 	private SlidingStyle mSlidingStyle;
+    private DrawingCachePolicy mDrawingCachePolicy = DrawingCachePolicy.VISIBLE;
+    private boolean mIsPanoramaScrolling;
+    private boolean mIsInViewport;
+    // bookkeeping of the drawing cache for MemoryBudget
+    private boolean mHasDrawingCache;
+    // read once per attach, display lists never use the drawing cache
+    private boolean mIsHardwareAccelerated;
+    private long mLastVisibleTime;
+    // snapshot drawn instead of the live contents while frozen
+    private Bitmap mSnapshot;
+    private Canvas mSnapshotCanvas;
 
 
     public PanoramaSection(Context context) {
+        this(context, Config.DEFAULT);
+    }
+
+    /**
+     * Construct a section in code, no attributes are parsed. The content is set with
+     * {@link #setContent}.
+     */
+    public PanoramaSection(Context context, Config config) {
         super(context);
-        initializePanoramaSection(context, null, 0);
+        initializePanoramaSection(context, config);
+        // there is no inflation to finish
+        generateHeader();
     }
 
     public PanoramaSection(Context context, AttributeSet attrs) {
-        super(context, attrs);
-        initializePanoramaSection(context, attrs, 0);
+        this(context, attrs, 0);
     }
 
     public PanoramaSection(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
-        initializePanoramaSection(context, attrs, defStyle);
+        Config config = Config.DEFAULT;
+        if (attrs != null) {
+            TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.PanoramaSection, defStyle, 0);
+            mCustomHeaderId = ta.getResourceId(R.styleable.PanoramaSection_customHeader, INVALID_RESOURCE_ID);
+            config = new Config.Builder()
+                    .setTitle(ta.getString(R.styleable.PanoramaSection_title))
+                    .setTitleColor(ta.getColor(R.styleable.PanoramaSection_titleColor, DEFAULT_TITLE_COLOR))
+                    .setIcon(ta.getDrawable(R.styleable.PanoramaSection_icon))
+                    .setSlidingStyle(SLIDING_STYLES[ta.getInt(R.styleable.PanoramaSection_slidingStyle, SlidingStyle.TOWED.ordinal())])
+                    .setDrawingCachePolicy(DRAWING_CACHE_POLICIES[ta.getInt(R.styleable.PanoramaSection_drawingCachePolicy,
+                                                                            DrawingCachePolicy.VISIBLE.ordinal())])
+                    .build();
+            ta.recycle();
+        }
+        initializePanoramaSection(context, config);
     }
 
     /**
      * initialize PanoramaSection internally
      */
-    private void initializePanoramaSection(Context context, AttributeSet attrs, int defStyle) {
-        if (attrs != null) {
-            TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.PanoramaSection, defStyle, 0);
-            mCustomHeaderId = ta.getResourceId(R.styleable.PanoramaSection_customHeader, -1);
-            mTitle = ta.getString(R.styleable.PanoramaSection_title);
-            mTitleColor = ta.getColor(R.styleable.PanoramaSection_titleColor, DEFAULT_TITLE_COLOR);
-            mTitleIcon = ta.getDrawable(R.styleable.PanoramaSection_icon);
-            String slidingStyle = ta.getString(R.styleable.PanoramaSection_slidingStyle);
-            if (slidingStyle == null) {
-            	mSlidingStyle = SlidingStyle.TOWED;
-            }
-            else if (slidingStyle.equals("bounded")) {
-            	mSlidingStyle = SlidingStyle.BOUNDED;
-            }
-            else if (slidingStyle.equals("towed")) {
-            	mSlidingStyle = SlidingStyle.TOWED;
-            }
-            else if (slidingStyle.equals("synced")) {
-            	mSlidingStyle = SlidingStyle.SYNCED;
-            }
-            else {
-            	throw new Error("invalid sliding style");
-            }
-            ta.recycle();
-        }
+    private void initializePanoramaSection(Context context, Config config) {
+        mTitle = config.title;
+        mTitleColor = config.titleColor;
+        mTitleIcon = PanoramaView.Config.newDrawable(config.icon);
+        mSlidingStyle = config.slidingStyle;
+        mDrawingCachePolicy = config.drawingCachePolicy;
 
         setWillNotDraw(false);
         setWillNotCacheDrawing(false);
-        setDrawingCacheEnabled(true);
+        applyDrawingCachePolicy();
         mUIContext = UIContext.getUIContext(context);
     }
 
@@ -130,19 +162,14 @@ public class PanoramaSection extends ViewGroup {
      *  will be inserted into PanoramaSection as the first child.
      */
     private void generateHeader() {
-        TextView tv = null;
+        TitleView tv = null;
         ImageView iv = null;
         LayoutParams lp = null;
 
         if (mTitle != null) {
-            tv = new TextView(getContext());
+            tv = new TitleView(getContext(), UIContext.Weight.SEMILIGHT, DEFAULT_TITLE_SIZE);
             tv.setText(mTitle);
             tv.setTextColor(mTitleColor);
-            tv.setSingleLine(true);
-            tv.setHorizontallyScrolling(true);
-            tv.setEllipsize(null);
-            tv.setTypeface(mUIContext.semilightTypeface);
-            tv.setTextSize(TypedValue.COMPLEX_UNIT_SP, DEFAULT_TITLE_SIZE);
             tv.setPadding(DEFAULT_TITLE_PADDING_LEFT, 0, 0, 0);
         }
 
@@ -274,8 +301,349 @@ public class PanoramaSection extends ViewGroup {
         return mHeader;
     }
 
+    /**
+     * Set the only content view of a section constructed in code, replacing the current one.
+     */
+    public void setContent(View content) {
+        if (mContent != null) {
+            removeView(mContent);
+        }
+        mContent = content;
+        if (content != null) {
+            addView(content);
+        }
+    }
+
 	public SlidingStyle getSlidingStyle() {
 		return mSlidingStyle;
 	}
 
+    public DrawingCachePolicy getDrawingCachePolicy() {
+        return mDrawingCachePolicy;
+    }
+
+    public void setDrawingCachePolicy(DrawingCachePolicy policy) {
+        mDrawingCachePolicy = policy;
+        applyDrawingCachePolicy();
+    }
+
+    /*
+     * Called by PanoramaView when it starts or stops dragging/flinging.
+     */
+    void setPanoramaScrolling(boolean scrolling) {
+        if (mIsPanoramaScrolling != scrolling) {
+            mIsPanoramaScrolling = scrolling;
+            applyDrawingCachePolicy();
+        }
+    }
+
+    /*
+     * Called by PanoramaView after layout when the section enters or leaves the viewport.
+     */
+    void setInViewport(boolean inViewport) {
+        if (mIsInViewport != inViewport) {
+            mIsInViewport = inViewport;
+            if (!inViewport) {
+                mLastVisibleTime = SystemClock.uptimeMillis();
+            }
+            applyDrawingCachePolicy();
+        }
+    }
+
+    boolean isInViewport() {
+        return mIsInViewport;
+    }
+
+    /*
+     * Called by PanoramaView after layout with the horizontal range of the viewport in the
+     * coordinates of the section, so that a TileGridView content binds only visible tiles.
+     */
+    void setViewportRange(int left, int right) {
+        if (mContent instanceof TileGridView) {
+            final int contentLeft = mContent.getLeft();
+            final int contentTop = mContent.getTop();
+            ((TileGridView) mContent).setVisibleArea(left - contentLeft, -contentTop, right - contentLeft, getHeight() - contentTop);
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mIsHardwareAccelerated = RenderCompat.isHardwareAccelerated(this);
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        if (mSnapshot != null) {
+            canvas.drawBitmap(mSnapshot, 0, 0, null);
+        }
+        else {
+            if (isDrawingCacheEnabled() && !mIsHardwareAccelerated) {
+                // a cached section is only drawn in software when the cache is being built
+                mHasDrawingCache = true;
+            }
+            super.draw(canvas);
+        }
+    }
+
+    /*
+     * @return the estimated size in bytes of the drawing cache, 0 if there is none
+     */
+    long getDrawingCacheSize() {
+        return mHasDrawingCache ? 4L * getWidth() * getHeight() : 0;
+    }
+
+    /*
+     * @return when the drawing cache was last visible, Long.MAX_VALUE if it's on the screen or
+     * there is none
+     */
+    long getDrawingCacheAccessTime() {
+        return mHasDrawingCache && !mIsInViewport ? mLastVisibleTime : Long.MAX_VALUE;
+    }
+
+    /*
+     * Release the drawing cache, it's built again the next time the section is drawn.
+     */
+    void evictDrawingCache() {
+        destroyDrawingCache();
+        mHasDrawingCache = false;
+    }
+
+    /*
+     * <p>Take a snapshot of the section and draw it instead of the live contents until
+     * unfreeze() is called.</p>
+     * <p>NOTE: The section must have been laid out before you call this method.</p>
+     * @param reuse a bitmap to render into if it has the right size, otherwise it is recycled
+     */
+    void freeze(Bitmap reuse) {
+        if (mSnapshot != null) {
+            if (reuse != null) {
+                reuse.recycle();
+            }
+            return;
+        }
+        showSnapshot(takeSnapshot(reuse));
+    }
+
+    /*
+     * Draw the given bitmap instead of the live contents until unfreeze() is called. The
+     * section takes over the ownership of the bitmap.
+     */
+    void showSnapshot(Bitmap snapshot) {
+        if (snapshot == null) {
+            return;
+        }
+        if (mSnapshot != null && mSnapshot != snapshot) {
+            mSnapshot.recycle();
+        }
+        mSnapshot = snapshot;
+        applyDrawingCachePolicy();
+        invalidate();
+    }
+
+    /*
+     * Go back to drawing the live contents.
+     * @return the snapshot drawn so far, the caller takes over the ownership of it
+     */
+    Bitmap unfreeze() {
+        final Bitmap snapshot = mSnapshot;
+        if (snapshot != null) {
+            mSnapshot = null;
+            applyDrawingCachePolicy();
+            invalidate();
+        }
+        return snapshot;
+    }
+
+    /*
+     * Render the live contents into a bitmap without freezing the section.
+     * NOTE: The section must have been laid out before you call this method.
+     * @param reuse a bitmap to render into if it has the right size, otherwise it is recycled
+     * @return the snapshot owned by the caller, or null if it can't be allocated
+     */
+    Bitmap takeSnapshot(Bitmap reuse) {
+        final int width = getWidth();
+        final int height = getHeight();
+        Bitmap snapshot = reuse;
+        if (snapshot != null && (snapshot.getWidth() != width || snapshot.getHeight() != height)) {
+            snapshot.recycle();
+            snapshot = null;
+        }
+        if (width <= 0 || height <= 0) {
+            return snapshot;
+        }
+        if (snapshot == null) {
+            try {
+                snapshot = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            catch (OutOfMemoryError e) {
+                Log.w(LOG_TAG, "not enough memory to take a snapshot of section " + mTitle);
+                return null;
+            }
+        }
+        else {
+            snapshot.eraseColor(Color.TRANSPARENT);
+        }
+        if (mSnapshotCanvas == null) {
+            mSnapshotCanvas = new Canvas();
+        }
+        mSnapshotCanvas.setBitmap(snapshot);
+        drawAllTiles(mSnapshotCanvas);
+        return snapshot;
+    }
+
+    /*
+     * Draw the whole section. Tiles of a grid out of the viewport are recycled, so they are
+     * bound for the duration of the drawing.
+     */
+    private void drawAllTiles(Canvas canvas) {
+        final TileGridView grid = mContent instanceof TileGridView ? (TileGridView) mContent : null;
+        if (grid != null) {
+            grid.beginFullRendering();
+        }
+        try {
+            super.draw(canvas);
+        }
+        finally {
+            if (grid != null) {
+                grid.endFullRendering();
+            }
+        }
+    }
+
+    /*
+     * Draw the contents into a canvas of the caller, e.g. scaled down for a thumbnail. Unlike
+     * draw() this never counts as building the drawing cache.
+     */
+    void drawContents(Canvas canvas) {
+        if (mSnapshot != null) {
+            canvas.drawBitmap(mSnapshot, 0, 0, null);
+        }
+        else {
+            drawAllTiles(canvas);
+        }
+    }
+
+    boolean isFrozen() {
+        return mSnapshot != null;
+    }
+
+    /*
+     * Enable or disable the drawing cache according to mDrawingCachePolicy. Disabling the
+     * drawing cache also releases the cached bitmap. A frozen section never needs a drawing
+     * cache since the snapshot plays the same role.
+     */
+    private void applyDrawingCachePolicy() {
+        boolean enabled;
+        switch (mDrawingCachePolicy) {
+        case NONE:
+            enabled = false;
+            break;
+        case SCROLLING:
+            enabled = mIsPanoramaScrolling;
+            break;
+        case ALWAYS:
+            enabled = true;
+            break;
+        case VISIBLE:
+        default:
+            enabled = mIsInViewport;
+        }
+        if (mSnapshot != null) {
+            enabled = false;
+        }
+        if (isDrawingCacheEnabled() != enabled) {
+            setDrawingCacheEnabled(enabled);
+            if (!enabled) {
+                mHasDrawingCache = false;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Immutable construction options of a section, the typed counterpart of the XML
+     * attributes. One config may be shared by any number of sections.
+     * </p>
+     * <p>
+     * NOTE: Title, title color and icon only apply to the generated header.
+     * </p>
+     * @author jiaoye
+     *
+     */
+    public static final class Config {
+
+        public static final Config DEFAULT = new Builder().build();
+
+        final String title;
+        final int titleColor;
+        final Drawable icon;
+        final SlidingStyle slidingStyle;
+        final DrawingCachePolicy drawingCachePolicy;
+
+        private Config(Builder b) {
+            title = b.mTitle;
+            titleColor = b.mTitleColor;
+            icon = b.mIcon;
+            slidingStyle = b.mSlidingStyle;
+            drawingCachePolicy = b.mDrawingCachePolicy;
+        }
+
+        public static final class Builder {
+            private String mTitle;
+            private int mTitleColor = DEFAULT_TITLE_COLOR;
+            private Drawable mIcon;
+            private SlidingStyle mSlidingStyle = SlidingStyle.TOWED;
+            private DrawingCachePolicy mDrawingCachePolicy = DrawingCachePolicy.VISIBLE;
+
+            public Builder() {
+            }
+
+            /**
+             * Start from the options of an existing config.
+             */
+            public Builder(Config c) {
+                mTitle = c.title;
+                mTitleColor = c.titleColor;
+                mIcon = c.icon;
+                mSlidingStyle = c.slidingStyle;
+                mDrawingCachePolicy = c.drawingCachePolicy;
+            }
+
+            public Builder setTitle(String title) {
+                mTitle = title;
+                return this;
+            }
+
+            public Builder setTitleColor(int color) {
+                mTitleColor = color;
+                return this;
+            }
+
+            public Builder setIcon(Drawable icon) {
+                mIcon = icon;
+                return this;
+            }
+
+            public Builder setSlidingStyle(SlidingStyle style) {
+                if (style == null) {
+                    throw new Error("invalid sliding style");
+                }
+                mSlidingStyle = style;
+                return this;
+            }
+
+            public Builder setDrawingCachePolicy(DrawingCachePolicy policy) {
+                if (policy == null) {
+                    throw new Error("invalid drawing cache policy");
+                }
+                mDrawingCachePolicy = policy;
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+        }
+    }
 }
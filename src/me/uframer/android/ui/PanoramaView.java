@@ -7,25 +7,32 @@ package me.uframer.android.ui;
 import java.util.ArrayList;
 import android.app.Activity;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.util.TypedValue;
+import android.view.Display;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.VelocityTracker;
 import android.view.View;
 import android.view.ViewConfiguration;
 import android.view.ViewGroup;
 import android.view.ViewParent;
+import android.view.animation.AnimationUtils;
 import android.view.animation.Interpolator;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
-import android.widget.TextView;
 
 /**
  * <p>
@@ -63,12 +70,28 @@ public class PanoramaView extends ViewGroup {
     private static final int DEFAULT_HEADER_RIGHT_MARGIN = 10;
     private static final int DEFAULT_HEADER_BOTTOM_MARGIN = 9;
     private static final int DEFAULT_HEADER_MIRAGE_INTERVAL = 348;
+    private static final int DEFAULT_SNAPSHOT_CACHE_RATIO = 16; // of the maximum heap size
+    private static final int DEFAULT_PREFETCH_LOOKAHEAD = 300; // in milliseconds
+    private static final int DEFAULT_MAX_PREDICTION_WINDOW = 20; // in milliseconds
+    private static final int DEFAULT_MAX_PREDICTION_DISTANCE = 64;
+    private static final int DEFAULT_LOW_RES_BACKGROUND_SCALE = 4;
+    private static final float DEFAULT_OVERVIEW_PINCH_IN = 0.8f; // accumulated scale entering the overview
+    private static final float DEFAULT_OVERVIEW_PINCH_OUT = 1.25f; // accumulated scale leaving the overview
+
+    private static final QualityLevel[] QUALITY_LEVELS = QualityLevel.values();
+    private static final SlidingStyle[] SLIDING_STYLES = SlidingStyle.values();
+    private static final BackgroundScalingStyle[] BACKGROUND_SCALING_STYLES = BackgroundScalingStyle.values();
+
+    // scroll states
+    static final int SCROLL_STATE_IDLE = 0;
+    static final int SCROLL_STATE_DRAGGING = 1;
+    static final int SCROLL_STATE_SETTLING = 2;
 
     // sliding style for header and background
     private SlidingStyle mSlidingStyle;
 
     // header
-    private int mCustomHeaderId;
+    private int mCustomHeaderId = INVALID_RESOURCE_ID;
     private View mHeader;
     private String mTitle;
     private int mTitleColor;
@@ -85,6 +108,39 @@ public class PanoramaView extends ViewGroup {
     private int mBackgroundWidth;
     private int mBackgroundHeight;
     private BackgroundScalingStyle mBackgroundScalingStyle;
+    // downscaled copy of the background used under frame pressure
+    private Bitmap mLowResBackground;
+    private long mLowResBackgroundTime;
+    // blurred and tinted copy of the background, processed off the UI thread
+    private int mBackgroundBlurRadius;
+    private int mBackgroundTint;
+    private BackgroundProcessor mBackgroundProcessor;
+    private Bitmap mProcessedBackground;
+    private int mBackgroundGeneration;
+    private int mProcessedBackgroundGeneration = -1;
+    private int mPendingBackgroundGeneration = -1;
+    private final BackgroundProcessor.Callback mBackgroundProcessorCallback = new BackgroundProcessor.Callback() {
+        @Override
+        public void onBackgroundProcessed(Bitmap result, int generation) {
+            mPendingBackgroundGeneration = -1;
+            if (result == null) {
+                return;
+            }
+            if (generation != mBackgroundGeneration) {
+                result.recycle();
+                return;
+            }
+            releaseProcessedBackground();
+            mProcessedBackground = result;
+            mProcessedBackgroundGeneration = generation;
+            if (mLowResBackgroundPaint == null) {
+                mLowResBackgroundPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            }
+            mRenderScheduler.requestFrame();
+        }
+    };
+    private Paint mLowResBackgroundPaint;
+    private Rect mBackgroundRect;
 
     // touching facilities
     private VelocityTracker mVelocityTracker;
@@ -96,19 +152,61 @@ public class PanoramaView extends ViewGroup {
     private float mLastMotionX = -1;
     private float mLastMotionY = -1;
     private float mFirstMotionX = -1;
+    // whether the current drag moved further than the touch slop
+    private boolean mHasCrossedSlop;
+    // the latest touch position not yet applied to the scroll offset
+    private float mPendingMotionX = -1;
+    private long mPendingMotionTime;
+    private FrameScheduler mDragFrameScheduler;
+    private RenderScheduler mRenderScheduler;
+    private boolean mPredictiveDrag;
+    private float mFrameInterval; // in milliseconds
+    private OnDragLatencyListener mOnDragLatencyListener;
+
+    // adaptive quality
+    private boolean mAdaptiveQuality;
+    private QualityGovernor mQualityGovernor;
+    private QualityLevel mQualityLevel = QualityLevel.FULL;
+    private OnQualityLevelChangedListener mOnQualityLevelChangedListener;
 
     // mirage views are all lazy
     private MirageView mHeaderMirage;
+    // raster of the header shared by mHeader and mHeaderMirage
+    private HeaderRenderCache mHeaderRenderCache;
 
     // the order of items in mSectionList is the same in children list
     private ArrayList<PanoramaSection> mSectionList;
+    private SectionGeometry mSectionGeometry;
+
+    // section transactions
+    private int mTransactionDepth;
+    private boolean mIsLayoutRequestedInTransaction;
+    private boolean mAnimateTransaction;
+    private PanoramaSection mAnchorSection;
+    private int mAnchorSectionIndex;
+    private int mAnchorOffset;
+    private boolean mHasPendingAnchor;
+    private ArrayList<PanoramaSection> mAppearingSections;
+
+    // position the next layout jumps to, e.g. the initial section or a restored state
+    private int mPendingSectionIndex = INVALID_POINTER;
+    private int mPendingSectionOffset;
+    private int mPendingWrapCount;
+    // sum of the section widths and margins as of the last layout, see getContentWidth()
+    private int mLayoutContentWidth;
+
+    private ArrayList<LiveTileScheduler> mLiveTileSchedulers = new ArrayList<LiveTileScheduler>();
 
     private DisplayMetrics mDisplayMetrics;
     private UIContext mUIContext;
 
     private Scroller mScroller;
+    private FlingTrajectory mTrajectory;
+    // easing of header and background while wrapping, null for linear
+    private Interpolator mSlidingInterpolator;
     private boolean mIsScrolling;
     private int mScrollingOffset;
+    private int mScrollState = SCROLL_STATE_IDLE;
 
     private PanoramaSection mOriginalSection;
 
@@ -117,11 +215,63 @@ public class PanoramaView extends ViewGroup {
 
     private boolean mDebugMode;
     private boolean mDemoMode;
+    private boolean mFreezeWhileScrolling;
+    // reused by every frame of debug and demo mode
+    private final Paint mDebugPaint = new Paint();
+    private final StringBuilder mDebugText = new StringBuilder();
+    private final Paint mDemoPaint = new Paint();
+    // carries the alpha of the header when its raster is blitted
+    private final Paint mHeaderPaint = new Paint();
+    // read once per attach, display lists don't need the header raster
+    private boolean mIsHardwareAccelerated;
+
+    // snapshots of recently visible sections, shown instantly when they scroll back into view
+    private BitmapLruCache<PanoramaSection> mSnapshotCache;
+    // sections that left the viewport live, their snapshots are taken once at rest
+    private final ArrayList<PanoramaSection> mPendingSnapshots = new ArrayList<PanoramaSection>();
+    private FrameScheduler mSnapshotScheduler;
+    private MemoryBudget.Cache mSectionCacheBudgetEntry;
+    private MemoryBudget.Cache mBackgroundBudgetEntry;
+
+    // prefetching
+    private OnSectionPrefetchListener mOnSectionPrefetchListener;
+    private int mLastTrackedScrollX;
+    private long mLastTrackedScrollTime = -1;
+    private float mScrollVelocity;
+    private int mPrefetchDirection;
+    private int mPrefetchNextIndex = INVALID_POINTER;
+    private int mPrefetchPreviousIndex = INVALID_POINTER;
 
     private int mInitialHeaderVisibility;
 
+    // culling statistics of the last dispatchDraw pass
+    private int mDrawnChildCount;
+    private int mCulledChildCount;
+
+    // overview mode
+    private PanoramaOverview mOverview;
+    private ScaleGestureDetector mScaleDetector;
+    private float mPinchScale = 1;
+    private long mLastScaleEventTime = -1;
+    private int mLastScaleEventAction = -1;
+    private boolean mIsOverviewTouchActive;
+    private boolean mIsOverviewDragged;
+    private float mOverviewFirstMotionX;
+    private float mOverviewLastMotionX;
+
     public PanoramaView(Context context) {
-        this(context, null, 0);
+        this(context, Config.DEFAULT);
+    }
+
+    /**
+     * Construct a panorama in code, no attributes are parsed. Sections are added with
+     * {@link #addSection}.
+     */
+    public PanoramaView(Context context, Config config) {
+        super(context);
+        initializePanoramaView(context, config);
+        // there is no inflation to finish
+        setupHeader();
     }
 
     public PanoramaView(Context context, AttributeSet attrs) {
@@ -130,118 +280,184 @@ public class PanoramaView extends ViewGroup {
 
     public PanoramaView(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
-        initializePanoramaView(context, attrs, defStyle);
-    }
-
-    /**
-     * initialize PanoramaView internally
-     */
-    private void initializePanoramaView(Context context, AttributeSet attrs, int defStyle) {
-        mSectionList = new ArrayList<PanoramaSection>();
-
+        Config config = Config.DEFAULT;
         if (attrs != null) {
             TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.PanoramaView, defStyle, 0);
             mCustomHeaderId = ta.getResourceId(R.styleable.PanoramaView_customHeader, INVALID_RESOURCE_ID);
+            final Config.Builder builder = new Config.Builder();
             if (mCustomHeaderId == INVALID_RESOURCE_ID) {
-                mTitle = ta.getString(R.styleable.PanoramaView_title);
-                mTitleColor = ta.getColor(R.styleable.PanoramaView_titleColor, DEFAULT_TITLE_COLOR);
-                mTitleIcon = ta.getDrawable(R.styleable.PanoramaView_icon);
                 // visibility of the default header, custom header's visibility is specified in its xml node
-                String initialHeaderVisibility = ta.getString(R.styleable.PanoramaView_headerVisibility);
-                if (initialHeaderVisibility == null) {
-                    mInitialHeaderVisibility = View.VISIBLE;
-                }
-                else if (initialHeaderVisibility.equals("visible")) {
-                    mInitialHeaderVisibility = View.VISIBLE;
-                }
-                else if (initialHeaderVisibility.equals("invisible")) {
-                    mInitialHeaderVisibility = View.INVISIBLE;
-                }
-                else if (initialHeaderVisibility.equals("gone")) {
-                    mInitialHeaderVisibility = View.GONE;
-                }
-                else {
-                    throw new Error("invalid header visibility");
-                }
+                builder.setTitle(ta.getString(R.styleable.PanoramaView_title))
+                       .setTitleColor(ta.getColor(R.styleable.PanoramaView_titleColor, DEFAULT_TITLE_COLOR))
+                       .setIcon(ta.getDrawable(R.styleable.PanoramaView_icon))
+                       .setHeaderVisibility(ta.getInt(R.styleable.PanoramaView_headerVisibility, View.VISIBLE));
             }
+            builder.setBackground(ta.getDrawable(R.styleable.PanoramaView_background))
+                   .setBackgroundBlurRadius(ta.getDimensionPixelSize(R.styleable.PanoramaView_backgroundBlurRadius, 0))
+                   .setBackgroundTint(ta.getColor(R.styleable.PanoramaView_backgroundTint, Color.TRANSPARENT))
+                   .setSlidingStyle(SLIDING_STYLES[ta.getInt(R.styleable.PanoramaView_slidingStyle, SlidingStyle.TOWED.ordinal())])
+                   .setBackgroundScalingStyle(BACKGROUND_SCALING_STYLES[ta.getInt(R.styleable.PanoramaView_backgroundScalingStyle,
+                                                                                 BackgroundScalingStyle.VERTICAL_STRETCH.ordinal())])
+                   .setDebugMode(ta.getBoolean(R.styleable.PanoramaView_debug, false))
+                   .setDemoMode(ta.getBoolean(R.styleable.PanoramaView_demo, false))
+                   .setFreezeWhileScrolling(ta.getBoolean(R.styleable.PanoramaView_freezeWhileScrolling, false))
+                   .setPredictiveDrag(ta.getBoolean(R.styleable.PanoramaView_predictiveDrag, false))
+                   .setAdaptiveQuality(ta.getBoolean(R.styleable.PanoramaView_adaptiveQuality, false))
+                   .setInitialSection(ta.getInt(R.styleable.PanoramaView_initialSection, INVALID_POINTER));
+            ta.recycle();
+            config = builder.build();
+        }
+        initializePanoramaView(context, config);
+    }
 
-            mBackgroundDrawable = ta.getDrawable(R.styleable.PanoramaView_background);
+    /**
+     * initialize PanoramaView internally
+     */
+    private void initializePanoramaView(Context context, Config config) {
+        mSectionList = new ArrayList<PanoramaSection>();
+        mSectionGeometry = new SectionGeometry(DEFAULT_SECTION_LEFT_MARGIN);
+        mAppearingSections = new ArrayList<PanoramaSection>();
+
+        mTitle = config.title;
+        mTitleColor = config.titleColor;
+        mTitleIcon = Config.newDrawable(config.icon);
+        mInitialHeaderVisibility = config.headerVisibility;
+        mBackgroundDrawable = Config.newDrawable(config.background);
+        mBackgroundBlurRadius = config.backgroundBlurRadius;
+        mBackgroundTint = config.backgroundTint;
+        mSlidingStyle = config.slidingStyle;
+        mBackgroundScalingStyle = config.backgroundScalingStyle;
+        mDebugMode = config.debugMode;
+        mDemoMode = config.demoMode;
+        mFreezeWhileScrolling = config.freezeWhileScrolling;
+        mPredictiveDrag = config.predictiveDrag;
+        mAdaptiveQuality = config.adaptiveQuality;
+        mPendingSectionIndex = config.initialSection;
 
-            // slidingStyle
-            String slidingStyle = ta.getString(R.styleable.PanoramaView_slidingStyle);
-            if (slidingStyle == null) {
-                mSlidingStyle = SlidingStyle.TOWED;
-            }
-            else if (slidingStyle.equals("bounded")) {
-                mSlidingStyle = SlidingStyle.BOUNDED;
-            }
-            else if (slidingStyle.equals("towed")) {
-                mSlidingStyle = SlidingStyle.TOWED;
-            }
-            else if (slidingStyle.equals("synced")) {
-                mSlidingStyle = SlidingStyle.SYNCED;
-            }
-            else {
-                throw new Error("invalid sliding style");
-            }
-            // backgroundScalingStyle
-            String backgroundScalingStyle = ta.getString(R.styleable.PanoramaView_backgroundScalingStyle);
-            if (backgroundScalingStyle == null) {
-                mBackgroundScalingStyle = BackgroundScalingStyle.VERTICAL_STRETCH;
-            }
-            else if (backgroundScalingStyle.equals("none")) {
-                mBackgroundScalingStyle = BackgroundScalingStyle.NONE;
-            }
-            else if (backgroundScalingStyle.equals("vertical_fill")) {
-                mBackgroundScalingStyle = BackgroundScalingStyle.VERTICAL_FILL;
+        setWillNotDraw(false);
+        mDisplayMetrics = new DisplayMetrics();
+        final Display display = ((Activity) getContext()).getWindowManager().getDefaultDisplay();
+        display.getMetrics(mDisplayMetrics);
+        mFrameInterval = 1000.0f / (display.getRefreshRate() > 0 ? display.getRefreshRate() : 60.0f);
+        mQualityGovernor = new QualityGovernor(mFrameInterval, QUALITY_LEVELS.length - 1);
+        mBackgroundRect = new Rect();
+        mUIContext = UIContext.getUIContext(context);
+
+        final ViewConfiguration configuration = ViewConfiguration.get(context);
+        mTouchSlop = configuration.getScaledTouchSlop(); // 24
+        mMaximumVelocity = configuration.getScaledMaximumFlingVelocity(); // 6000
+        mFlingVelocity = 1500;
+        mScroller = new Scroller();
+        mTrajectory = new FlingTrajectory();
+        mVelocityTracker = VelocityTracker.obtain();
+        mRenderScheduler = new RenderScheduler(this, mFrameInterval);
+        mDemoPaint.setColor(0xaaffff00);
+        mDemoPaint.setAntiAlias(true);
+        mDragFrameScheduler = new FrameScheduler(this, new Runnable() {
+            @Override
+            public void run() {
+                applyPendingDrag(mPredictiveDrag);
             }
-            else if (backgroundScalingStyle.equals("vertical_stretch")) {
-                mBackgroundScalingStyle = BackgroundScalingStyle.VERTICAL_STRETCH;
+        });
+        mSnapshotScheduler = new FrameScheduler(this, new Runnable() {
+            @Override
+            public void run() {
+                takePendingSnapshot();
             }
-            else {
-                throw new Error("invalid background scaling style");
+        });
+        mSnapshotCache = new BitmapLruCache<PanoramaSection>("section snapshots", Runtime.getRuntime().maxMemory() / DEFAULT_SNAPSHOT_CACHE_RATIO);
+        mOverview = new PanoramaOverview(this, mSectionList, mSnapshotCache);
+        mScaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScaleBegin(ScaleGestureDetector detector) {
+                mPinchScale = 1;
+                return true;
             }
-            // debug
-            String debug = ta.getString(R.styleable.PanoramaView_debug);
-            if (debug == null) {
-                mDebugMode = false;
+
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                mPinchScale *= detector.getScaleFactor();
+                return true;
             }
-            else if (debug.equals("true")) {
-                mDebugMode = true;
+
+            @Override
+            public void onScaleEnd(ScaleGestureDetector detector) {
+                if (!mOverview.isShowing() && mPinchScale < DEFAULT_OVERVIEW_PINCH_IN) {
+                    setOverviewMode(true);
+                }
+                else if (mOverview.isShowing() && mPinchScale > DEFAULT_OVERVIEW_PINCH_OUT) {
+                    setOverviewMode(false);
+                }
             }
-            else if (debug.equals("false")) {
-                mDebugMode = false;
+        });
+        mSectionCacheBudgetEntry = new MemoryBudget.Cache() {
+            @Override
+            public String getName() {
+                return "section drawing caches";
             }
-            else {
-                throw new Error("invalid debug mode");
+
+            @Override
+            public long size() {
+                long size = 0;
+                for (PanoramaSection ps : mSectionList) {
+                    size += ps.getDrawingCacheSize();
+                }
+                return size;
             }
-            // demo
-            String demo = ta.getString(R.styleable.PanoramaView_demo);
-            if (demo == null) {
-                mDemoMode = false;
+
+            @Override
+            public long oldestAccessTime() {
+                long time = Long.MAX_VALUE;
+                for (PanoramaSection ps : mSectionList) {
+                    time = Math.min(time, ps.getDrawingCacheAccessTime());
+                }
+                return time;
             }
-            else if (demo.equals("true")) {
-                mDemoMode = true;
+
+            @Override
+            public boolean evictOldest() {
+                PanoramaSection oldest = null;
+                long time = Long.MAX_VALUE;
+                for (PanoramaSection ps : mSectionList) {
+                    if (ps.getDrawingCacheAccessTime() < time) {
+                        oldest = ps;
+                        time = ps.getDrawingCacheAccessTime();
+                    }
+                }
+                if (oldest == null) {
+                    return false;
+                }
+                oldest.evictDrawingCache();
+                return true;
             }
-            else if (demo.equals("false")) {
-                mDemoMode = false;
+        };
+        mBackgroundBudgetEntry = new MemoryBudget.Cache() {
+            @Override
+            public String getName() {
+                return "backgrounds";
             }
-            else {
-                throw new Error("invalid demo mode");
+
+            @Override
+            public long size() {
+                // the processed background is reported only, evicting it would process it again
+                return (mLowResBackground == null ? 0 : BitmapLruCache.sizeOf(mLowResBackground))
+                       + (mProcessedBackground == null ? 0 : BitmapLruCache.sizeOf(mProcessedBackground));
             }
-            ta.recycle();
-        }
 
-        setWillNotDraw(false);
-        mDisplayMetrics = new DisplayMetrics();
-        ((Activity) getContext()).getWindowManager().getDefaultDisplay().getMetrics(mDisplayMetrics);
-        mUIContext = UIContext.getUIContext(context);
+            @Override
+            public long oldestAccessTime() {
+                return mLowResBackground == null ? Long.MAX_VALUE : mLowResBackgroundTime;
+            }
 
-        final ViewConfiguration configuration = ViewConfiguration.get(context);
-        mTouchSlop = configuration.getScaledTouchSlop(); // 24
-        mMaximumVelocity = configuration.getScaledMaximumFlingVelocity(); // 6000
-        mFlingVelocity = 1500;
-        mScroller = new Scroller();
+            @Override
+            public boolean evictOldest() {
+                if (mLowResBackground == null) {
+                    return false;
+                }
+                releaseLowResBackground();
+                return true;
+            }
+        };
     }
 
     @Override
@@ -272,7 +488,13 @@ public class PanoramaView extends ViewGroup {
             }
         }
 
-        // generate a header if no custom header provided
+        setupHeader();
+    }
+
+    /*
+     * Generate a header if no custom header provided, and add its mirage.
+     */
+    private void setupHeader() {
         if (mCustomHeaderId == INVALID_RESOURCE_ID || mHeader == null) {
             generateHeader();
             mHeader.setVisibility(mInitialHeaderVisibility);
@@ -280,6 +502,7 @@ public class PanoramaView extends ViewGroup {
 
         mHeaderMirage = new MirageView(getContext(), mHeader);
         addView(mHeaderMirage, mHeader.getLayoutParams());
+        mHeaderRenderCache = new HeaderRenderCache(mHeader);
     }
 
     /**
@@ -287,19 +510,14 @@ public class PanoramaView extends ViewGroup {
      * header panel will be inserted into PanoramaView as the first child.
      */
     private void generateHeader() {
-        TextView tv = null;
+        TitleView tv = null;
         ImageView iv = null;
         LayoutParams lp = null;
 
         if (mTitle != null) {
-            tv = new TextView(getContext());
+            tv = new TitleView(getContext(), UIContext.Weight.LIGHT, DEFAULT_TITLE_SIZE);
             tv.setText(mTitle);
             tv.setTextColor(mTitleColor);
-            tv.setSingleLine(true);
-            tv.setHorizontallyScrolling(true);
-            tv.setEllipsize(null);
-            tv.setTypeface(mUIContext.lightTypeface);
-            tv.setTextSize(TypedValue.COMPLEX_UNIT_SP, DEFAULT_TITLE_SIZE);
             tv.setPadding(0, DEFAULT_TITLE_PADDING_TOP, 0, DEFAULT_TITLE_PADDING_BOTTOM);
         }
 
@@ -336,20 +554,31 @@ public class PanoramaView extends ViewGroup {
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
         final float viewportWidth = getMeasuredWidth();
-        final float effectiveViewportWidth = viewportWidth - DEFAULT_PEEKING_WIDTH;
         final float viewportHeight = getMeasuredHeight();
         final float contentWidth = getMeasuredContentWidth();
         final float headerWidth = mHeader.getMeasuredWidth();
-        final float effectiveHeaderWidth = headerWidth + DEFAULT_HEADER_LEFT_MARGIN + DEFAULT_HEADER_RIGHT_MARGIN;
         final float headerHeight = mHeader.getMeasuredHeight();
         float viewportOffsetX = 0;
         float viewportOffsetY = 0;
         float viewportLeft = 0;
+        int trajectorySample = FlingTrajectory.NO_SAMPLE;
+
+        if (mHasPendingAnchor) {
+            restoreAnchorSection();
+        }
+        if (mPendingSectionIndex != INVALID_POINTER) {
+            applyPendingSection();
+        }
+        measureBackground(viewportHeight);
 
         // FIXME onLayout may be called several times
         if (mIsScrolling) {
             mIsScrolling = mScroller.computeScrollOffset();
             mScrollingOffset = mScroller.getCurrX();
+            if (mTrajectory.isPlannedFor((int) viewportWidth, (int) viewportHeight, (int) contentWidth, (int) headerWidth)) {
+                trajectorySample = mTrajectory.sampleAt(mIsScrolling ? mScroller.timePassed() : Integer.MAX_VALUE);
+                mScrollingOffset = mTrajectory.getViewportLeft(trajectorySample);
+            }
             viewportLeft = mScrollingOffset;
         }
         else {
@@ -361,86 +590,43 @@ public class PanoramaView extends ViewGroup {
         final boolean wrapToHead = (validSectionCount > 1) && (viewportLeft > contentWidth - viewportWidth);
 
         // 1. layout background
+        TraceCompat.beginSection("PanoramaView#layoutBackground");
         if (mBackgroundDrawable != null) {
-            // determine width and height
-            switch (mBackgroundScalingStyle) {
-            case VERTICAL_FILL:
-                mBackgroundWidth = (int) (mBackgroundDrawable.getIntrinsicWidth() * viewportHeight / mBackgroundDrawable.getIntrinsicHeight());
-                mBackgroundHeight = (int) viewportHeight;
-                break;
-            case VERTICAL_STRETCH:
-                mBackgroundWidth = mBackgroundDrawable.getIntrinsicWidth();
-                mBackgroundHeight = (int) viewportHeight;
-                break;
-            case NONE:
-            default:
-                mBackgroundWidth = mBackgroundDrawable.getIntrinsicWidth();
-                mBackgroundHeight = mBackgroundDrawable.getIntrinsicHeight();
+            if (trajectorySample != FlingTrajectory.NO_SAMPLE) {
+                mBackgroundLeft = mTrajectory.getBackgroundLeft(trajectorySample);
             }
-            // calculate left edge offset
-            switch (mSlidingStyle) {
-            case BOUNDED:
-                mBackgroundLeft = (int) (viewportLeft * (contentWidth - headerWidth) / (contentWidth - viewportWidth));
-                break;
-            case TOWED:
-                if (mIsWrappingToHead) {
-                    final float progress = (viewportLeft - mLastViewportLeft) / (contentWidth - mLastViewportLeft);
-                    mBackgroundLeft = (int) (mLastBackgroundLeft + progress * (contentWidth - mBackgroundWidth - mLastBackgroundLeft));
-                }
-                else if (mIsWrappingToTail) {
-                    final float lastSectionWidth = getLastValidSectionWidth() + DEFAULT_SECTION_LEFT_MARGIN;
-                    final float destinationViewportLeft = -lastSectionWidth;
-                    final float progress = (viewportLeft - mLastViewportLeft) / (destinationViewportLeft - mLastViewportLeft);
-                    float destination = (contentWidth - lastSectionWidth) * (contentWidth - viewportWidth + DEFAULT_PEEKING_WIDTH - DEFAULT_BACKGROUND_TRAILING_WIDTH) / contentWidth;
-                    destination = destination + mBackgroundWidth - contentWidth;
-                    mBackgroundLeft = (int) (mLastBackgroundLeft + progress * (destination - mLastBackgroundLeft));
-                }
-                else {
-                    mBackgroundLeft = (int) (viewportLeft * (contentWidth - viewportWidth + DEFAULT_PEEKING_WIDTH - DEFAULT_BACKGROUND_TRAILING_WIDTH) / contentWidth);
-                }
-                break;
-            case SYNCED:
-            default:
-                mBackgroundLeft = 0;
+            else {
+                mBackgroundLeft = computeBackgroundLeft(viewportLeft, viewportWidth, contentWidth, headerWidth);
             }
         }
+        TraceCompat.endSection();
 
         // 2. layout header
+        TraceCompat.beginSection("PanoramaView#layoutHeader");
         if (mHeader.getVisibility() != View.GONE) {
-            if (validSectionCount > 0) {
-                switch (mSlidingStyle) {
-                case BOUNDED:
-                    viewportOffsetX = viewportLeft * (contentWidth - effectiveHeaderWidth) / (contentWidth - viewportWidth) + DEFAULT_HEADER_LEFT_MARGIN;
-                    break;
-                case TOWED:
-                    if (mIsWrappingToHead) {
-                        final float progress = (viewportLeft - mLastViewportLeft) / (contentWidth - mLastViewportLeft);
-                        viewportOffsetX = mLastHeaderLeft + progress * (DEFAULT_HEADER_LEFT_MARGIN - mLastHeaderLeft);
-                    }
-                    else if (mIsWrappingToTail) {
-                        final float lastSectionWidth = getLastValidSectionWidth() + DEFAULT_SECTION_LEFT_MARGIN;
-                        final float destinationViewportLeft = -lastSectionWidth;
-                        final float progress = (viewportLeft - mLastViewportLeft) / (destinationViewportLeft - mLastViewportLeft);
-                        final float destination = DEFAULT_HEADER_LEFT_MARGIN + DEFAULT_PEEKING_WIDTH;
-                        viewportOffsetX = mLastHeaderLeft + progress * (destination - mLastHeaderLeft);
-                    }
-                    else {
-                        viewportOffsetX = viewportLeft * (contentWidth - headerWidth + contentWidth / effectiveViewportWidth + 80.0f) / contentWidth + DEFAULT_HEADER_LEFT_MARGIN;
-                    }
-                    break;
-                case SYNCED:
-                default:
-                    viewportOffsetX = 0;
-                }
+            final int headerLeft;
+            if (trajectorySample != FlingTrajectory.NO_SAMPLE
+                    && mTrajectory.getHeaderLeft(trajectorySample) != FlingTrajectory.NO_POSITION) {
+                headerLeft = mTrajectory.getHeaderLeft(trajectorySample);
             }
             else {
-                viewportOffsetX = DEFAULT_HEADER_LEFT_MARGIN;
+                headerLeft = (int) computeHeaderLeft(viewportLeft, viewportWidth, contentWidth, headerWidth, validSectionCount);
+            }
+            if (mHeader.isLayoutRequested() || mHeader.getWidth() != (int) headerWidth || mHeader.getHeight() != (int) headerHeight) {
+                mHeader.layout(headerLeft, 0, (int) (headerLeft + headerWidth), (int) headerHeight);
+                mHeaderRenderCache.invalidate();
+            }
+            else {
+                // layout() would invalidate the header as if its contents changed
+                mHeader.offsetLeftAndRight(headerLeft - mHeader.getLeft());
             }
-            mHeader.layout((int) (viewportOffsetX), 0, (int) (headerWidth + viewportOffsetX), (int) headerHeight);
             viewportOffsetY += headerHeight + DEFAULT_HEADER_BOTTOM_MARGIN;
         }
+        TraceCompat.endSection();
 
         // 3. layout sections
+        TraceCompat.beginSection("PanoramaView#layoutSections");
+        mLayoutContentWidth = (int) contentWidth;
         int sectionOffsetX = DEFAULT_SECTION_LEFT_MARGIN;
         final int sectionCount = mSectionList.size();
         if (sectionCount > 0) {
@@ -503,53 +689,271 @@ public class PanoramaView extends ViewGroup {
                     }
                 }
             }
+
+            // tell sections whether they intersect the viewport
+            final int viewportRight = (int) (viewportLeft + viewportWidth);
+            for (int i = 0; i < sectionCount; ++i) {
+                final PanoramaSection ps = mSectionList.get(i);
+                final boolean inViewport = ps.getVisibility() != View.GONE
+                                           && ps.getRight() > viewportLeft
+                                           && ps.getLeft() < viewportRight;
+                if (inViewport != ps.isInViewport()) {
+                    updateSectionSnapshot(ps, inViewport);
+                    ps.setInViewport(inViewport);
+                    final ImageLoader loader = ImageLoader.peekInstance();
+                    if (loader != null) {
+                        if (inViewport) {
+                            loader.resumeWithin(ps);
+                        }
+                        else {
+                            loader.pauseWithin(ps);
+                        }
+                    }
+                }
+                if (ps.getVisibility() != View.GONE) {
+                    final LayoutParams lp = (LayoutParams) ps.getLayoutParams();
+                    lp.viewportLeft = (int) viewportLeft - ps.getLeft();
+                    lp.viewportRight = viewportRight - ps.getLeft();
+                    ps.setViewportRange(lp.viewportLeft, lp.viewportRight);
+                }
+            }
+            // jumps at rest, e.g. setCurrentSection() or a wrap, don't change the scroll state
+            if (mScrollState == SCROLL_STATE_IDLE) {
+                for (int i = 0; i < mLiveTileSchedulers.size(); ++i) {
+                    mLiveTileSchedulers.get(i).onViewportChanged();
+                }
+            }
         }
+        TraceCompat.endSection();
 
         // 4. layout mirages
-        if (mHeader.getVisibility() != View.GONE) {
-            if (wrapToTail) {
-                switch (mSlidingStyle) {
-                case TOWED:
-                    if (mIsWrappingToTail) {
-                        final float lastSectionWidth = getLastValidSectionWidth() + DEFAULT_SECTION_LEFT_MARGIN;
-                        final float destinationViewportLeft = -lastSectionWidth;
-                        final float progress = (viewportLeft - mLastViewportLeft) / (destinationViewportLeft - mLastViewportLeft);
-                        float destination = (contentWidth - lastSectionWidth) * (contentWidth - headerWidth + contentWidth / effectiveViewportWidth + 80.0f) / contentWidth + DEFAULT_HEADER_LEFT_MARGIN;
-                        destination = destination - contentWidth;
-                        viewportOffsetX = mLastHeaderLeft - contentWidth + progress * (destination - mLastHeaderLeft + contentWidth);
-                    }
-                    else {
-                        viewportOffsetX = mHeader.getLeft() - DEFAULT_HEADER_MIRAGE_INTERVAL - headerWidth;
-                    }
-                    break;
-                case BOUNDED:
-                    viewportOffsetX = viewportLeft - headerWidth - DEFAULT_HEADER_RIGHT_MARGIN;
-                case SYNCED:
-                default:
-                    viewportOffsetX = viewportLeft - contentWidth + DEFAULT_HEADER_LEFT_MARGIN;
+        TraceCompat.beginSection("PanoramaView#layoutMirages");
+        if (mHeader.getVisibility() != View.GONE && (wrapToTail || wrapToHead)) {
+            final int mirageLeft;
+            if (trajectorySample != FlingTrajectory.NO_SAMPLE
+                    && mTrajectory.getHeaderMirageLeft(trajectorySample) != FlingTrajectory.NO_POSITION) {
+                mirageLeft = mTrajectory.getHeaderMirageLeft(trajectorySample);
+            }
+            else {
+                mirageLeft = (int) computeHeaderMirageLeft(viewportLeft, mHeader.getLeft(), mHeader.getRight(),
+                                                           viewportWidth, contentWidth, headerWidth, wrapToTail);
+            }
+            mHeaderMirage.layout(mirageLeft, 0, (int) (mirageLeft + headerWidth), (int) headerHeight);
+            if (mQualityLevel.compareTo(QualityLevel.FROZEN_MIRAGES) >= 0 && !mHeaderMirage.isFrozen()) {
+                mHeaderMirage.freeze();
+            }
+        }
+        TraceCompat.endSection();
+
+        // 5. animate sections brought in by the last transaction
+        if (!mAppearingSections.isEmpty()) {
+            if (mAnimateTransaction) {
+                for (PanoramaSection ps : mAppearingSections) {
+                    final FlipInAnimation flip = new FlipInAnimation(0, ps.getHeight() / 2);
+                    flip.setTranslateOnly(isFlipTranslateOnly());
+                    ps.startAnimation(flip);
                 }
-                mHeaderMirage.layout((int) (viewportOffsetX), 0, (int) (headerWidth + viewportOffsetX), (int) headerHeight);
-            }
-            else if (wrapToHead) {
-                switch (mSlidingStyle) {
-                case TOWED:
-                    if (mIsWrappingToHead) {
-                        final float offset = headerWidth + DEFAULT_HEADER_MIRAGE_INTERVAL;
-                        final float progress = (viewportLeft - mLastViewportLeft) / (contentWidth - mLastViewportLeft);
-                        viewportOffsetX = mLastHeaderLeft + offset + progress * (contentWidth + DEFAULT_HEADER_LEFT_MARGIN - mLastHeaderLeft - offset);
-                    }
-                    else {
-                        viewportOffsetX = mHeader.getRight() + DEFAULT_HEADER_MIRAGE_INTERVAL;
-                    }
-                    break;
-                case BOUNDED:
-                case SYNCED:
-                default:
-                    viewportOffsetX = contentWidth + DEFAULT_HEADER_LEFT_MARGIN;
+            }
+            mAppearingSections.clear();
+        }
+    }
+
+    /*
+     * Determine the size of the background according to mBackgroundScalingStyle.
+     */
+    private void measureBackground(float viewportHeight) {
+        if (mBackgroundDrawable == null) {
+            return;
+        }
+        final int width = mBackgroundWidth;
+        final int height = mBackgroundHeight;
+        switch (mBackgroundScalingStyle) {
+        case VERTICAL_FILL:
+            mBackgroundWidth = (int) (mBackgroundDrawable.getIntrinsicWidth() * viewportHeight / mBackgroundDrawable.getIntrinsicHeight());
+            mBackgroundHeight = (int) viewportHeight;
+            break;
+        case VERTICAL_STRETCH:
+            mBackgroundWidth = mBackgroundDrawable.getIntrinsicWidth();
+            mBackgroundHeight = (int) viewportHeight;
+            break;
+        case NONE:
+        default:
+            mBackgroundWidth = mBackgroundDrawable.getIntrinsicWidth();
+            mBackgroundHeight = mBackgroundDrawable.getIntrinsicHeight();
+        }
+        if (width != mBackgroundWidth || height != mBackgroundHeight) {
+            mBackgroundGeneration++;
+        }
+    }
+
+    /*
+     * Calculate the left edge of the background for the given viewport position.
+     */
+    private int computeBackgroundLeft(float viewportLeft, float viewportWidth, float contentWidth, float headerWidth) {
+        switch (getEffectiveSlidingStyle()) {
+        case BOUNDED:
+            return (int) (viewportLeft * (contentWidth - headerWidth) / (contentWidth - viewportWidth));
+        case TOWED:
+            if (mIsWrappingToHead) {
+                final float progress = easeSliding((viewportLeft - mLastViewportLeft) / (contentWidth - mLastViewportLeft));
+                return (int) (mLastBackgroundLeft + progress * (contentWidth - mBackgroundWidth - mLastBackgroundLeft));
+            }
+            else if (mIsWrappingToTail) {
+                final float lastSectionWidth = getLastValidSectionWidth() + DEFAULT_SECTION_LEFT_MARGIN;
+                final float destinationViewportLeft = -lastSectionWidth;
+                final float progress = easeSliding((viewportLeft - mLastViewportLeft) / (destinationViewportLeft - mLastViewportLeft));
+                float destination = (contentWidth - lastSectionWidth) * (contentWidth - viewportWidth + DEFAULT_PEEKING_WIDTH - DEFAULT_BACKGROUND_TRAILING_WIDTH) / contentWidth;
+                destination = destination + mBackgroundWidth - contentWidth;
+                return (int) (mLastBackgroundLeft + progress * (destination - mLastBackgroundLeft));
+            }
+            else {
+                return (int) (viewportLeft * (contentWidth - viewportWidth + DEFAULT_PEEKING_WIDTH - DEFAULT_BACKGROUND_TRAILING_WIDTH) / contentWidth);
+            }
+        case SYNCED:
+        default:
+            return 0;
+        }
+    }
+
+    /*
+     * TOWED falls back to SYNCED under frame pressure.
+     */
+    private SlidingStyle getEffectiveSlidingStyle() {
+        if (mSlidingStyle == SlidingStyle.TOWED && mQualityLevel.compareTo(QualityLevel.SYNCED_PARALLAX) >= 0) {
+            return SlidingStyle.SYNCED;
+        }
+        return mSlidingStyle;
+    }
+
+    /*
+     * Apply mSlidingInterpolator to the progress of wrapping.
+     */
+    private float easeSliding(float progress) {
+        return mSlidingInterpolator == null ? progress : mSlidingInterpolator.getInterpolation(progress);
+    }
+
+    /*
+     * Calculate the left edge of the header for the given viewport position.
+     */
+    private float computeHeaderLeft(float viewportLeft, float viewportWidth, float contentWidth, float headerWidth, int validSectionCount) {
+        if (validSectionCount <= 0) {
+            return DEFAULT_HEADER_LEFT_MARGIN;
+        }
+        final float effectiveViewportWidth = viewportWidth - DEFAULT_PEEKING_WIDTH;
+        final float effectiveHeaderWidth = headerWidth + DEFAULT_HEADER_LEFT_MARGIN + DEFAULT_HEADER_RIGHT_MARGIN;
+        switch (getEffectiveSlidingStyle()) {
+        case BOUNDED:
+            return viewportLeft * (contentWidth - effectiveHeaderWidth) / (contentWidth - viewportWidth) + DEFAULT_HEADER_LEFT_MARGIN;
+        case TOWED:
+            if (mIsWrappingToHead) {
+                final float progress = easeSliding((viewportLeft - mLastViewportLeft) / (contentWidth - mLastViewportLeft));
+                return mLastHeaderLeft + progress * (DEFAULT_HEADER_LEFT_MARGIN - mLastHeaderLeft);
+            }
+            else if (mIsWrappingToTail) {
+                final float lastSectionWidth = getLastValidSectionWidth() + DEFAULT_SECTION_LEFT_MARGIN;
+                final float destinationViewportLeft = -lastSectionWidth;
+                final float progress = easeSliding((viewportLeft - mLastViewportLeft) / (destinationViewportLeft - mLastViewportLeft));
+                final float destination = DEFAULT_HEADER_LEFT_MARGIN + DEFAULT_PEEKING_WIDTH;
+                return mLastHeaderLeft + progress * (destination - mLastHeaderLeft);
+            }
+            else {
+                return viewportLeft * (contentWidth - headerWidth + contentWidth / effectiveViewportWidth + 80.0f) / contentWidth + DEFAULT_HEADER_LEFT_MARGIN;
+            }
+        case SYNCED:
+        default:
+            return 0;
+        }
+    }
+
+    /*
+     * Calculate the left edge of the header mirage for the given viewport position while
+     * wrapping to tail (wrapToTail is true) or to head.
+     */
+    private float computeHeaderMirageLeft(float viewportLeft, int headerLeft, int headerRight, float viewportWidth,
+                                          float contentWidth, float headerWidth, boolean wrapToTail) {
+        if (wrapToTail) {
+            switch (getEffectiveSlidingStyle()) {
+            case TOWED:
+                if (mIsWrappingToTail) {
+                    final float effectiveViewportWidth = viewportWidth - DEFAULT_PEEKING_WIDTH;
+                    final float lastSectionWidth = getLastValidSectionWidth() + DEFAULT_SECTION_LEFT_MARGIN;
+                    final float destinationViewportLeft = -lastSectionWidth;
+                    final float progress = easeSliding((viewportLeft - mLastViewportLeft) / (destinationViewportLeft - mLastViewportLeft));
+                    float destination = (contentWidth - lastSectionWidth) * (contentWidth - headerWidth + contentWidth / effectiveViewportWidth + 80.0f) / contentWidth + DEFAULT_HEADER_LEFT_MARGIN;
+                    destination = destination - contentWidth;
+                    return mLastHeaderLeft - contentWidth + progress * (destination - mLastHeaderLeft + contentWidth);
+                }
+                else {
+                    return headerLeft - DEFAULT_HEADER_MIRAGE_INTERVAL - headerWidth;
+                }
+            case BOUNDED:
+            case SYNCED:
+            default:
+                return viewportLeft - contentWidth + DEFAULT_HEADER_LEFT_MARGIN;
+            }
+        }
+        else {
+            switch (getEffectiveSlidingStyle()) {
+            case TOWED:
+                if (mIsWrappingToHead) {
+                    final float offset = headerWidth + DEFAULT_HEADER_MIRAGE_INTERVAL;
+                    final float progress = easeSliding((viewportLeft - mLastViewportLeft) / (contentWidth - mLastViewportLeft));
+                    return mLastHeaderLeft + offset + progress * (contentWidth + DEFAULT_HEADER_LEFT_MARGIN - mLastHeaderLeft - offset);
+                }
+                else {
+                    return headerRight + DEFAULT_HEADER_MIRAGE_INTERVAL;
+                }
+            case BOUNDED:
+            case SYNCED:
+            default:
+                return contentWidth + DEFAULT_HEADER_LEFT_MARGIN;
+            }
+        }
+    }
+
+    /*
+     * Precompute the positions of viewport, header, header mirage and background for every
+     * millisecond of the smooth scroll just started with mScroller, so that onLayout only
+     * looks them up while scrolling. The wrapping state (mIsWrappingToHead, mIsWrappingToTail
+     * and mLast*) must have been set up before.
+     */
+    private void planTrajectory(int startX, int endX, int duration) {
+        final float viewportWidth = getMeasuredWidth();
+        final float viewportHeight = getMeasuredHeight();
+        final float contentWidth = getMeasuredContentWidth();
+        final float headerWidth = mHeader.getMeasuredWidth();
+        final int validSectionCount = getValidSectionCount();
+        final boolean isHeaderVisible = mHeader.getVisibility() != View.GONE;
+        final Interpolator interpolator = mScroller.getInterpolator();
+        final float durationReciprocal = 1.0f / duration;
+
+        TraceCompat.beginSection("PanoramaView#planTrajectory");
+        measureBackground(viewportHeight);
+        mTrajectory.reset(duration, (int) viewportWidth, (int) viewportHeight, (int) contentWidth, (int) headerWidth);
+        for (int sample = 0; sample <= duration; ++sample) {
+            // same as android.widget.Scroller.computeScrollOffset()
+            final int viewportLeft = sample < duration
+                                     ? startX + Math.round(interpolator.getInterpolation(sample * durationReciprocal) * (endX - startX))
+                                     : endX;
+            final int backgroundLeft = mBackgroundDrawable == null ? 0 : computeBackgroundLeft(viewportLeft, viewportWidth, contentWidth, headerWidth);
+            int headerLeft = FlingTrajectory.NO_POSITION;
+            int mirageLeft = FlingTrajectory.NO_POSITION;
+            if (isHeaderVisible) {
+                headerLeft = (int) computeHeaderLeft(viewportLeft, viewportWidth, contentWidth, headerWidth, validSectionCount);
+                final boolean wrapToTail = (validSectionCount > 1) && (viewportLeft < 0);
+                final boolean wrapToHead = (validSectionCount > 1) && (viewportLeft > contentWidth - viewportWidth);
+                if (wrapToTail || wrapToHead) {
+                    mirageLeft = (int) computeHeaderMirageLeft(viewportLeft, headerLeft, (int) (headerLeft + headerWidth),
+                                                               viewportWidth, contentWidth, headerWidth, wrapToTail);
                 }
-                mHeaderMirage.layout((int) (viewportOffsetX), 0, (int) (headerWidth + viewportOffsetX), (int) headerHeight);
             }
+            mTrajectory.set(sample, viewportLeft, headerLeft, mirageLeft, backgroundLeft);
         }
+        TraceCompat.endSection();
+    }
+
+    FlingTrajectory getTrajectory() {
+        return mTrajectory;
     }
 
     // ======================== manipulating layout parameters ===============================
@@ -637,30 +1041,41 @@ public class PanoramaView extends ViewGroup {
 
         // measure children, we do NOT depend on the order of children
         // 1. measure header panel
+        TraceCompat.beginSection("PanoramaView#measureHeader");
         if (mHeader.getVisibility() != View.GONE) {
             measureChild(mHeader,
                     MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
                     MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
         }
+        TraceCompat.endSection();
 
         // 2. measure sections
+        TraceCompat.beginSection("PanoramaView#measureSections");
         final int minimumSectionWidth = width - DEFAULT_SECTION_LEFT_MARGIN - DEFAULT_PEEKING_WIDTH;
         final int headerMeasuredHeight = mHeader.getVisibility() == View.GONE ? 0 : mHeader.getMeasuredHeight() + DEFAULT_HEADER_BOTTOM_MARGIN ;
         final int childHeightMeasureSpec = MeasureSpec.makeMeasureSpec(height - headerMeasuredHeight, MeasureSpec.AT_MOST);
         final int childWidthMeasureSpec = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
-        for (PanoramaSection ps : mSectionList) {
-            if (ps.getVisibility() != View.GONE) {
+        mSectionGeometry.setSectionCount(mSectionList.size());
+        for (int i = 0; i < mSectionList.size(); ++i) {
+            final PanoramaSection ps = mSectionList.get(i);
+            final boolean gone = ps.getVisibility() == View.GONE;
+            if (!gone) {
                 ((PanoramaView.LayoutParams) ps.getLayoutParams()).sectionWidth = minimumSectionWidth;
                 measureChild(ps, childWidthMeasureSpec, childHeightMeasureSpec);
             }
+            mSectionGeometry.setSection(i, gone, ps.getMeasuredWidth());
         }
+        mSectionGeometry.update();
+        TraceCompat.endSection();
 
         // 3. measure mirages
+        TraceCompat.beginSection("PanoramaView#measureMirages");
         if (mHeader.getVisibility() != View.GONE) {
             measureChild(mHeaderMirage,
                     MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED),
                     MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED));
         }
+        TraceCompat.endSection();
 
         setMeasuredDimension(width, height);
     }
@@ -672,11 +1087,20 @@ public class PanoramaView extends ViewGroup {
             dumpMotionEvent("onInterceptTouchEvent", ev);
         }
 
+        // the overview and pinches take every touch away from the sections
+        feedScaleDetector(ev);
+        if (mOverview.isShowing() || mScaleDetector.isInProgress()) {
+            return true;
+        }
+
         switch (ev.getActionMasked()) {
         case MotionEvent.ACTION_DOWN:
             mLastMotionX = ev.getX();
+            mFirstMotionX = mLastMotionX;
+            mPendingMotionX = mLastMotionX;
             mActivePointerId = ev.getPointerId(0);
             mIsBeingDragged = !mScroller.isFinished();
+            mHasCrossedSlop = false;
             break;
 
         case MotionEvent.ACTION_MOVE: {
@@ -692,8 +1116,14 @@ public class PanoramaView extends ViewGroup {
             final float x = ev.getX(ev.findPointerIndex(mActivePointerId));
             final int deltaX = (int) Math.abs(x - mLastMotionX);
             if (deltaX > mTouchSlop) {
+                // the drag starts here rather than in onTouchEvent when it starts over a section
                 mIsBeingDragged = true;
                 mLastMotionX = x;
+                mPendingMotionX = x;
+                mPendingMotionTime = ev.getEventTime();
+                mOriginalSection = findSectionUnderPoint(getScrollX());
+                setScrollState(SCROLL_STATE_DRAGGING);
+                onSlopCrossed();
                 final ViewParent parent = getParent();
                 if (parent != null) {
                     parent.requestDisallowInterceptTouchEvent(true);
@@ -721,6 +1151,15 @@ public class PanoramaView extends ViewGroup {
             dumpMotionEvent("onTouchEvent", ev);
         }
 
+        feedScaleDetector(ev);
+        if (mOverview.isShowing()) {
+            return onOverviewTouchEvent(ev);
+        }
+        if (mScaleDetector.isInProgress() && ev.getActionMasked() == MotionEvent.ACTION_MOVE) {
+            // don't drag while pinching
+            return true;
+        }
+
         if (ev.getAction() == MotionEvent.ACTION_DOWN && ev.getEdgeFlags() != 0) {
             // Don't handle edge touches immediately -- they may actually belong to one of our
             // descendants. (uframer: AbsListView for example)
@@ -730,6 +1169,11 @@ public class PanoramaView extends ViewGroup {
         if (mVelocityTracker == null) {
             mVelocityTracker = VelocityTracker.obtain();
         }
+        if (ev.getActionMasked() == MotionEvent.ACTION_DOWN) {
+            // the tracker lives as long as the view, start over for every gesture
+            mVelocityTracker.clear();
+        }
+        // the tracker consumes the historical samples batched in ev as well
         mVelocityTracker.addMovement(ev);
 
         final boolean canScroll = canScroll();
@@ -748,26 +1192,37 @@ public class PanoramaView extends ViewGroup {
                 }
 
                 // Remember where the motion event started
+                mDragFrameScheduler.cancel();
                 mLastMotionX = ev.getX();
                 mLastMotionY = ev.getY();
                 mFirstMotionX = mLastMotionX;
+                mPendingMotionX = mLastMotionX;
                 mOriginalSection = findSectionUnderPoint(getScrollX());
                 mActivePointerId = ev.getPointerId(0);
-                invalidate();
+                mHasCrossedSlop = false;
+                setScrollState(SCROLL_STATE_DRAGGING);
+                if (mDemoMode) {
+                    mRenderScheduler.requestDecorativeFrame();
+                }
                 break;
             }
             case MotionEvent.ACTION_MOVE:
                 if (mIsBeingDragged) {
-                    // Scroll to follow the motion event
-                    final float x = ev.getX(ev.findPointerIndex(mActivePointerId));
-                    final int deltaX = (int) (x - mLastMotionX);
-                    scrollBy(-deltaX);
-                    mLastMotionX = x;
-                    mLastMotionY = ev.getY(ev.findPointerIndex(mActivePointerId));
+                    // Scroll to follow the motion event. All the movement between two frames
+                    // is coalesced into one scroll update applied in the next frame.
+                    final int pointerIndex = ev.findPointerIndex(mActivePointerId);
+                    mPendingMotionX = ev.getX(pointerIndex);
+                    mPendingMotionTime = ev.getEventTime();
+                    mLastMotionY = ev.getY(pointerIndex);
+                    if (!mHasCrossedSlop && Math.abs(mPendingMotionX - mFirstMotionX) > mTouchSlop) {
+                        onSlopCrossed();
+                    }
+                    mDragFrameScheduler.schedule();
                 }
                 break;
             case MotionEvent.ACTION_UP:
                 if (mIsBeingDragged) {
+                    finishPendingDrag();
                     mVelocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
                     int initialVelocity = (int) mVelocityTracker.getXVelocity(mActivePointerId);
 
@@ -857,7 +1312,7 @@ public class PanoramaView extends ViewGroup {
                                             smoothScrollTo(currentSectionRightEdge, 200);
                                         }
                                     } else { // simply stay here
-                                        invalidate();
+                                        mRenderScheduler.requestFrame();
                                     }
                                 } else {
                                     // standard section
@@ -904,25 +1359,24 @@ public class PanoramaView extends ViewGroup {
 
                     mActivePointerId = INVALID_POINTER;
                     mIsBeingDragged = false;
-
-                    if (mVelocityTracker != null) {
-                        mVelocityTracker.recycle();
-                        mVelocityTracker = null;
-                    }
+                    mVelocityTracker.clear();
 
                     mLastMotionX = -1;
                     mLastMotionY = -1;
+
+                    if (!mIsScrolling) {
+                        setScrollState(SCROLL_STATE_IDLE);
+                    }
                 }
                 break;
             case MotionEvent.ACTION_CANCEL:
                 if (mIsBeingDragged && canScroll) {
-                    invalidate();
+                    finishPendingDrag();
+                    mRenderScheduler.requestFrame();
                     mActivePointerId = INVALID_POINTER;
                     mIsBeingDragged = false;
-                    if (mVelocityTracker != null) {
-                        mVelocityTracker.recycle();
-                        mVelocityTracker = null;
-                    }
+                    mVelocityTracker.clear();
+                    setScrollState(SCROLL_STATE_IDLE);
                 }
                 mLastMotionX = -1;
                 mLastMotionY = -1;
@@ -938,10 +1392,12 @@ public class PanoramaView extends ViewGroup {
         final int pointerIndex = ev.getActionIndex();
         final int pointerId = ev.getPointerId(pointerIndex);
         if (pointerId == mActivePointerId) {
+            finishPendingDrag();
             final int newPointerIndex = pointerIndex == 0 ? 1 : 0;
             mActivePointerId = ev.getPointerId(newPointerIndex);
             mLastMotionX = ev.getX(newPointerIndex);
             mLastMotionY = ev.getY(newPointerIndex);
+            mPendingMotionX = mLastMotionX;
             if (mVelocityTracker != null) {
                 mVelocityTracker.clear();
             }
@@ -949,39 +1405,134 @@ public class PanoramaView extends ViewGroup {
     }
 
     /*
-     * Calculate the sum of the measured widths of all sections and their corresponding margins.
-     * NOTE: Sections with View.GONE visibility are not included.
+     * Apply the movement accumulated since the last frame. The fractional part of the movement
+     * is carried over to the next frame instead of being dropped.
+     * If predict is true, the finger position is extrapolated to the time the next frame is
+     * displayed, bounded by DEFAULT_MAX_PREDICTION_WINDOW and DEFAULT_MAX_PREDICTION_DISTANCE.
+     * mLastMotionX then holds the predicted position, so the error is corrected as soon as the
+     * next real sample arrives.
      */
-    private int getMeasuredContentWidth() {
-        int contentWidth = 0;
-        for (PanoramaSection ps : mSectionList) {
-            if (ps.getVisibility() != View.GONE)
-                contentWidth += ps.getMeasuredWidth() + DEFAULT_SECTION_LEFT_MARGIN;
+    private void applyPendingDrag(boolean predict) {
+        final long now = SystemClock.uptimeMillis();
+        final long lag = now - mPendingMotionTime;
+        float targetX = mPendingMotionX;
+        long prediction = 0;
+        if (predict) {
+            prediction = Math.min((long) (lag + mFrameInterval), DEFAULT_MAX_PREDICTION_WINDOW);
+            mVelocityTracker.computeCurrentVelocity(1000, mMaximumVelocity);
+            float distance = mVelocityTracker.getXVelocity(mActivePointerId) * prediction / 1000;
+            if (distance > DEFAULT_MAX_PREDICTION_DISTANCE) {
+                distance = DEFAULT_MAX_PREDICTION_DISTANCE;
+            }
+            else if (distance < -DEFAULT_MAX_PREDICTION_DISTANCE) {
+                distance = -DEFAULT_MAX_PREDICTION_DISTANCE;
+            }
+            targetX += distance;
+        }
+        final int deltaX = (int) (targetX - mLastMotionX);
+        if (deltaX != 0) {
+            scrollBy(-deltaX);
+            mLastMotionX += deltaX;
+            mRenderScheduler.requestMotionFrame();
+        }
+        if (mOnDragLatencyListener != null) {
+            mOnDragLatencyListener.onDragLatency(this, lag, prediction);
         }
-        return contentWidth;
     }
 
     /*
-     * Calculate the sum of the layout widths of all sections and their corresponding margins.
-     * NOTE: Sections with View.GONE visibility are not included.
+     * An event may reach both onInterceptTouchEvent and onTouchEvent, the detector must see
+     * it only once.
      */
-    private int getContentWidth() {
-        int contentWidth = 0;
-        for (PanoramaSection ps : mSectionList) {
-            if (ps.getVisibility() != View.GONE)
-                contentWidth += ps.getWidth() + DEFAULT_SECTION_LEFT_MARGIN;
+    private void feedScaleDetector(MotionEvent ev) {
+        if (ev.getEventTime() == mLastScaleEventTime && ev.getAction() == mLastScaleEventAction) {
+            return;
         }
-        return contentWidth;
+        mLastScaleEventTime = ev.getEventTime();
+        mLastScaleEventAction = ev.getAction();
+        mScaleDetector.onTouchEvent(ev);
     }
 
-    private int getValidSectionCount() {
-        int count = 0;
-        for (PanoramaSection ps: mSectionList) {
-            if (ps.getVisibility() != View.GONE) {
-                count++;
-            }
-        }
-        return count;
+    /*
+     * Drag the overview strip, or jump to the section of a tapped thumbnail. Touches that
+     * started before the overview was shown, i.e. the pinch showing it, are ignored.
+     */
+    private boolean onOverviewTouchEvent(MotionEvent ev) {
+        switch (ev.getActionMasked()) {
+        case MotionEvent.ACTION_DOWN:
+            mIsOverviewTouchActive = true;
+            mIsOverviewDragged = false;
+            mOverviewFirstMotionX = ev.getX();
+            mOverviewLastMotionX = mOverviewFirstMotionX;
+            break;
+        case MotionEvent.ACTION_POINTER_DOWN:
+            // a pinch is never a tap
+            mIsOverviewDragged = true;
+            break;
+        case MotionEvent.ACTION_MOVE: {
+            if (!mIsOverviewTouchActive || mScaleDetector.isInProgress()) {
+                break;
+            }
+            final float x = ev.getX();
+            if (!mIsOverviewDragged && Math.abs(x - mOverviewFirstMotionX) > mTouchSlop) {
+                mIsOverviewDragged = true;
+                mOverviewLastMotionX = x;
+            }
+            if (mIsOverviewDragged) {
+                mOverview.scrollBy((int) (mOverviewLastMotionX - x));
+                mOverviewLastMotionX = x;
+                mRenderScheduler.requestFrame();
+            }
+            break;
+        }
+        case MotionEvent.ACTION_UP:
+            if (mIsOverviewTouchActive && !mIsOverviewDragged) {
+                final int index = mOverview.findSectionAt(ev.getX(), ev.getY());
+                if (index != PanoramaOverview.NO_SECTION) {
+                    setOverviewMode(false);
+                    setCurrentSection(index);
+                }
+            }
+            mIsOverviewTouchActive = false;
+            break;
+        case MotionEvent.ACTION_CANCEL:
+            mIsOverviewTouchActive = false;
+            break;
+        }
+        return true;
+    }
+
+    /*
+     * Apply the pending movement right now without prediction, so that the scroll offset
+     * matches the real finger position.
+     */
+    private void finishPendingDrag() {
+        if (mDragFrameScheduler.isScheduled() || mLastMotionX != mPendingMotionX) {
+            mDragFrameScheduler.cancel();
+            applyPendingDrag(false);
+        }
+    }
+
+    /*
+     * Calculate the sum of the measured widths of all sections and their corresponding margins.
+     * NOTE: Sections with View.GONE visibility are not included.
+     */
+    private int getMeasuredContentWidth() {
+        return mSectionGeometry.getContentWidth();
+    }
+
+    /*
+     * Calculate the sum of the layout widths of all sections and their corresponding margins.
+     * Every valid section is laid out at its measured width, so this is the measured sum as
+     * of the last layout, sections measured again but not laid out yet don't count.
+     * NOTE: Sections with View.GONE visibility are not included.
+     */
+    private int getContentWidth() {
+        return mLayoutContentWidth;
+    }
+
+    private int getValidSectionCount() {
+        return mSectionGeometry.getValidSectionCount();
     }
     // =================================== scrolling ======================================
 
@@ -993,6 +1544,7 @@ public class PanoramaView extends ViewGroup {
     public void scrollTo(int x, int y) {
         super.scrollTo(x, 0);
         requestLayout();
+        trackScrollForPrefetch(x);
     }
 
     public void scrollTo(int x) {
@@ -1008,32 +1560,43 @@ public class PanoramaView extends ViewGroup {
         scrollBy(x, 0);
     }
 
+    /*
+     * Land on the real head or tail once a wrapping fling is over, posted since scrolling
+     * within computeScroll() would start another frame of the same fling.
+     */
+    private final Runnable mWrapToHead = new Runnable() {
+        @Override
+        public void run() {
+            scrollTo(0);
+            mRenderScheduler.requestFrame();
+        }
+    };
+
+    private final Runnable mWrapToTail = new Runnable() {
+        @Override
+        public void run() {
+            scrollTo(getContentWidth() - getLastValidSectionWidth() - DEFAULT_SECTION_LEFT_MARGIN);
+            mRenderScheduler.requestFrame();
+        }
+    };
+
     @Override
     public void computeScroll() {
         if (mIsScrolling) {
             scrollTo(mScrollingOffset, 0);
-            invalidate();
+            mRenderScheduler.requestMotionFrame();
         }
         else {
             if (mIsWrappingToHead) {
                 mIsWrappingToHead = false;
-                post(new Runnable() {
-                    @Override
-                    public void run() {
-                        scrollTo(0);
-                        invalidate();
-                    }
-                });
+                post(mWrapToHead);
             }
             if (mIsWrappingToTail) {
                 mIsWrappingToTail = false;
-                post(new Runnable() {
-                    @Override
-                    public void run() {
-                        scrollTo(getContentWidth() - getLastValidSectionWidth() - DEFAULT_SECTION_LEFT_MARGIN);
-                        invalidate();
-                    }
-                });
+                post(mWrapToTail);
+            }
+            if (mScrollState == SCROLL_STATE_SETTLING) {
+                setScrollState(SCROLL_STATE_IDLE);
             }
         }
     }
@@ -1041,9 +1604,375 @@ public class PanoramaView extends ViewGroup {
     private void smoothScrollTo(int endX, int duration) {
         final int startX = getScrollX();
         mScroller.startScroll(startX, 0, endX - startX, 0, duration);
+        planTrajectory(startX, endX, duration);
         mIsScrolling = true;
+        setScrollState(SCROLL_STATE_SETTLING);
+        if (endX != startX) {
+            freezeVisibleSections();
+        }
         requestLayout();
-        invalidate();
+        mRenderScheduler.requestFrame();
+    }
+
+    /*
+     * A touch becomes a real drag, as opposed to a tap, once it moves further than the slop.
+     */
+    private void onSlopCrossed() {
+        mHasCrossedSlop = true;
+        freezeVisibleSections();
+    }
+
+    /*
+     * Replace the visible sections by snapshots if mFreezeWhileScrolling is set, only once
+     * the panorama really moves so that a tap doesn't render anything.
+     */
+    private void freezeVisibleSections() {
+        if (!mFreezeWhileScrolling) {
+            return;
+        }
+        for (int i = 0; i < mSectionList.size(); ++i) {
+            final PanoramaSection ps = mSectionList.get(i);
+            if (!ps.isFrozen() && ps.getVisibility() == View.VISIBLE && ps.isInViewport()) {
+                ps.freeze(mSnapshotCache.remove(ps));
+            }
+        }
+    }
+
+    /*
+     * Switch among SCROLL_STATE_IDLE, SCROLL_STATE_DRAGGING and SCROLL_STATE_SETTLING and
+     * notify sections whether the panorama is scrolling. In freeze-while-scrolling mode the
+     * visible sections are snapshotted when scrolling starts and go live again once idle.
+     */
+    private void setScrollState(int state) {
+        if (mScrollState == state) {
+            return;
+        }
+        mScrollState = state;
+        final boolean isScrolling = state != SCROLL_STATE_IDLE;
+        mRenderScheduler.setInMotion(isScrolling);
+        mQualityGovernor.forgetLastFrame();
+        if (!isScrolling) {
+            // caches grow while scrolling, settle the budget at rest
+            MemoryBudget.getInstance().enforce();
+        }
+        if (!isScrolling && mAdaptiveQuality) {
+            // apply the new level between gestures so that nothing jumps while moving
+            setQualityLevel(QUALITY_LEVELS[mQualityGovernor.getLevel()]);
+        }
+        for (int i = 0; i < mLiveTileSchedulers.size(); ++i) {
+            mLiveTileSchedulers.get(i).onPanoramaScrolling(isScrolling);
+        }
+        for (PanoramaSection ps : mSectionList) {
+            ps.setPanoramaScrolling(isScrolling);
+            if (!isScrolling) {
+                releaseSectionSnapshot(ps);
+            }
+        }
+        if (!isScrolling && !mPendingSnapshots.isEmpty()) {
+            mSnapshotScheduler.schedule();
+        }
+    }
+
+    /*
+     * Keep the snapshot of a section leaving the viewport in mSnapshotCache, and show the cached
+     * snapshot of a section scrolling back into view until the panorama comes to rest.
+     */
+    private void updateSectionSnapshot(PanoramaSection ps, boolean inViewport) {
+        if (mSnapshotCache.maxSize() <= 0) {
+            return;
+        }
+        if (!inViewport) {
+            if (ps.isFrozen()) {
+                // already rendered
+                mSnapshotCache.put(ps, ps.unfreeze());
+            }
+            else if (!mPendingSnapshots.contains(ps)) {
+                // rendering a whole section doesn't belong to layout, wait for the next frame at rest
+                mPendingSnapshots.add(ps);
+                if (mScrollState == SCROLL_STATE_IDLE) {
+                    mSnapshotScheduler.schedule();
+                }
+            }
+            return;
+        }
+        mPendingSnapshots.remove(ps);
+        if (mScrollState != SCROLL_STATE_IDLE && ps.getVisibility() == View.VISIBLE) {
+            final Bitmap snapshot = mSnapshotCache.remove(ps);
+            if (snapshot != null && snapshot.getWidth() == ps.getWidth() && snapshot.getHeight() == ps.getHeight()) {
+                ps.showSnapshot(snapshot);
+            }
+            else if (snapshot != null) {
+                // taken before a size change, kept for takeSnapshot to reuse if it fits again
+                mSnapshotCache.put(ps, snapshot);
+            }
+        }
+    }
+
+    /*
+     * Snapshot one section that left the viewport per frame, only while the panorama is at rest.
+     */
+    private void takePendingSnapshot() {
+        if (mScrollState != SCROLL_STATE_IDLE || mPendingSnapshots.isEmpty()) {
+            return;
+        }
+        final PanoramaSection ps = mPendingSnapshots.remove(mPendingSnapshots.size() - 1);
+        if (mSnapshotCache.maxSize() > 0 && ps.getParent() == this
+                && ps.getVisibility() == View.VISIBLE && !ps.isInViewport()) {
+            final Bitmap snapshot = ps.takeSnapshot(mSnapshotCache.remove(ps));
+            if (snapshot != null) {
+                mSnapshotCache.put(ps, snapshot);
+            }
+        }
+        if (!mPendingSnapshots.isEmpty()) {
+            mSnapshotScheduler.schedule();
+        }
+    }
+
+    /*
+     * Go back to the live contents of a section and keep its snapshot for later reuse.
+     */
+    private void releaseSectionSnapshot(PanoramaSection ps) {
+        final Bitmap snapshot = ps.unfreeze();
+        if (snapshot != null) {
+            if (mSnapshotCache.maxSize() > 0) {
+                mSnapshotCache.put(ps, snapshot);
+            }
+            else {
+                snapshot.recycle();
+            }
+        }
+    }
+
+    /*
+     * Estimate the scrolling velocity and predict which sections come into view next, then tell
+     * mOnSectionPrefetchListener whenever the prediction changes. The prediction looks
+     * DEFAULT_PREFETCH_LOOKAHEAD milliseconds ahead and wraps across the ends of the content.
+     */
+    private void trackScrollForPrefetch(int x) {
+        if (mOnSectionPrefetchListener == null || mScrollState == SCROLL_STATE_IDLE) {
+            mLastTrackedScrollTime = -1;
+            mScrollVelocity = 0;
+            mPrefetchDirection = 0;
+            mPrefetchNextIndex = INVALID_POINTER;
+            mPrefetchPreviousIndex = INVALID_POINTER;
+            return;
+        }
+
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        if (mLastTrackedScrollTime < 0) {
+            mLastTrackedScrollX = x;
+            mLastTrackedScrollTime = now;
+            return;
+        }
+        final long elapsed = now - mLastTrackedScrollTime;
+        if (elapsed <= 0 || x == mLastTrackedScrollX) {
+            return;
+        }
+        final float velocity = (x - mLastTrackedScrollX) * 1000.0f / elapsed;
+        mScrollVelocity = mScrollVelocity == 0 ? velocity : (mScrollVelocity + velocity) / 2;
+        mLastTrackedScrollX = x;
+        mLastTrackedScrollTime = now;
+        predictPrefetchSections(x);
+    }
+
+    /*
+     * Move to x without scrolling, e.g. to keep the current section in place after the
+     * sections before it changed. The jump is not taken as velocity, but the prediction is
+     * redone since the sections at the predicted offsets may have changed.
+     * NOTE: Called by onLayout, so no layout is requested.
+     */
+    private void jumpTo(int x) {
+        final int oldX = getScrollX();
+        super.scrollTo(x, 0);
+        if (mOnSectionPrefetchListener == null || mLastTrackedScrollTime < 0) {
+            return;
+        }
+        mLastTrackedScrollX += x - oldX;
+        predictPrefetchSections(x);
+    }
+
+    private void predictPrefetchSections(int x) {
+        final int contentWidth = getMeasuredContentWidth();
+        if (contentWidth <= 0 || mScrollVelocity == 0) {
+            return;
+        }
+        final int direction = mScrollVelocity > 0 ? 1 : -1;
+        final int lookahead = (int) (Math.abs(mScrollVelocity) * DEFAULT_PREFETCH_LOOKAHEAD / 1000);
+        final int nextIndex;
+        final int previousIndex;
+        if (direction > 0) {
+            nextIndex = findSectionIndexAtContentOffset(x + getWidth() + lookahead, contentWidth);
+            previousIndex = findSectionIndexAtContentOffset(x - DEFAULT_SECTION_LEFT_MARGIN - 1, contentWidth);
+        }
+        else {
+            nextIndex = findSectionIndexAtContentOffset(x - lookahead, contentWidth);
+            previousIndex = findSectionIndexAtContentOffset(x + getWidth(), contentWidth);
+        }
+
+        if (direction != mPrefetchDirection || nextIndex != mPrefetchNextIndex || previousIndex != mPrefetchPreviousIndex) {
+            mPrefetchDirection = direction;
+            mPrefetchNextIndex = nextIndex;
+            mPrefetchPreviousIndex = previousIndex;
+            mOnSectionPrefetchListener.onPrefetchSections(this, direction, mScrollVelocity, nextIndex, previousIndex);
+        }
+    }
+
+    /*
+     * Find the section at the given offset of the unwrapped content strip, offsets beyond
+     * either end wrap around.
+     * NOTE: Sections with View.GONE visibility are not included.
+     */
+    private int findSectionIndexAtContentOffset(int offset, int contentWidth) {
+        final int index = mSectionGeometry.findSectionAt(offset);
+        return index == SectionGeometry.NO_SECTION ? INVALID_POINTER : index;
+    }
+
+    /**
+     * Register a callback to be told which sections are about to come into view while the
+     * panorama is dragged or flung, so that their data can be loaded in advance.
+     */
+    public void setOnSectionPrefetchListener(OnSectionPrefetchListener l) {
+        mOnSectionPrefetchListener = l;
+    }
+
+    /**
+     * Set the maximum size in bytes of the snapshots kept for recently visible sections.
+     * 0 disables the snapshot cache.
+     */
+    public void setSnapshotCacheSize(long bytes) {
+        mSnapshotCache.setMaxSize(bytes);
+    }
+
+    public long getSnapshotCacheSize() {
+        return mSnapshotCache.maxSize();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        mIsHardwareAccelerated = RenderCompat.isHardwareAccelerated(this);
+        final MemoryBudget budget = MemoryBudget.getInstance();
+        budget.register(getContext(), mSnapshotCache);
+        budget.register(getContext(), mSectionCacheBudgetEntry);
+        budget.register(getContext(), mBackgroundBudgetEntry);
+        budget.register(getContext(), mOverview.getThumbnailCache());
+        if (mHeaderRenderCache != null) {
+            budget.register(getContext(), mHeaderRenderCache);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        final MemoryBudget budget = MemoryBudget.getInstance();
+        budget.unregister(mSnapshotCache);
+        budget.unregister(mSectionCacheBudgetEntry);
+        budget.unregister(mBackgroundBudgetEntry);
+        budget.unregister(mOverview.getThumbnailCache());
+        mOverview.release();
+        if (mHeaderRenderCache != null) {
+            budget.unregister(mHeaderRenderCache);
+            mHeaderRenderCache.release();
+        }
+        mDragFrameScheduler.cancel();
+        mRenderScheduler.cancel();
+        mSnapshotScheduler.cancel();
+        mPendingSnapshots.clear();
+        for (int i = 0; i < mSectionList.size(); ++i) {
+            final Bitmap snapshot = mSectionList.get(i).unfreeze();
+            if (snapshot != null) {
+                snapshot.recycle();
+            }
+        }
+        mSnapshotCache.evictAll();
+        // the loader outlives the activity, it must not hold on to the tiles
+        final ImageLoader loader = ImageLoader.peekInstance();
+        if (loader != null) {
+            loader.cancelWithin(this);
+        }
+        if (mBackgroundProcessor != null) {
+            mBackgroundProcessor.cancel();
+            mPendingBackgroundGeneration = -1;
+        }
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
+    /*
+     * The panorama survives a configuration change only if the activity handles it, then all
+     * caches are kept and only the metrics the fallback size is derived from are refreshed.
+     */
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        ((Activity) getContext()).getWindowManager().getDefaultDisplay().getMetrics(mDisplayMetrics);
+        requestLayout();
+    }
+
+    /*
+     * Keep the viewport at the same relative position within its section when the panorama is
+     * resized, e.g. rotated. The sections are measured for the new size at this point but
+     * still laid out for the old one, the position is applied by the coming onLayout.
+     * NOTE: Height dependent rasters, i.e. the scaled background, are redone by
+     * measureBackground, header renders and frozen mirages don't depend on the size.
+     */
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (oldw <= 0 || oldh <= 0 || mPendingSectionIndex != INVALID_POINTER) {
+            return;
+        }
+        // 1. land a running scroll
+        if (!mScroller.isFinished()) {
+            mScroller.abortAnimation();
+            mIsScrolling = false;
+            super.scrollTo(mScroller.getFinalX(), 0);
+        }
+
+        // 2. rescale the offset into the current section
+        final int index = findCurrentSectionIndex();
+        if (index == INVALID_POINTER) {
+            return;
+        }
+        final PanoramaSection ps = mSectionList.get(index);
+        final int oldWidth = ps.getWidth() + DEFAULT_SECTION_LEFT_MARGIN;
+        final int newWidth = ps.getMeasuredWidth() + DEFAULT_SECTION_LEFT_MARGIN;
+        final int offset = getScrollX() - (ps.getLeft() - DEFAULT_SECTION_LEFT_MARGIN);
+        mPendingSectionIndex = index;
+        mPendingSectionOffset = oldWidth > 0 ? (int) ((long) offset * newWidth / oldWidth) : 0;
+        mPendingWrapCount = 0;
+    }
+
+    /**
+     * Release cached bitmaps of all library caches, see {@link MemoryBudget#onTrimMemory}.
+     * Only needed below API level 14, where MemoryBudget can't follow the trim callbacks
+     * of the application on its own.
+     */
+    public void onTrimMemory(int level) {
+        MemoryBudget.getInstance().onTrimMemory(level);
+    }
+
+    int getScrollState() {
+        return mScrollState;
+    }
+
+    void addLiveTileScheduler(LiveTileScheduler scheduler) {
+        mLiveTileSchedulers.add(scheduler);
+    }
+
+    void removeLiveTileScheduler(LiveTileScheduler scheduler) {
+        mLiveTileSchedulers.remove(scheduler);
+    }
+
+    /*
+     * Called by TileGridView when it recycles a tile of one of the sections.
+     */
+    void onTileRecycled(View tile) {
+        for (int i = 0; i < mLiveTileSchedulers.size(); ++i) {
+            mLiveTileSchedulers.get(i).onTileRecycled(tile);
+        }
     }
 
     public View getHeader() {
@@ -1054,8 +1983,393 @@ public class PanoramaView extends ViewGroup {
         return mSlidingStyle;
     }
 
-    public void setHeaderLayoutStyle(SlidingStyle s) {
-        mSlidingStyle = s;
+    public void setHeaderLayoutStyle(SlidingStyle s) {
+        mSlidingStyle = s;
+    }
+
+    /**
+     * Set the easing curve of flings and snaps, e.g. one of {@link Easing}. Defaults to
+     * {@link Easing#exponential()}. A running scroll is finished immediately.
+     */
+    public void setScrollInterpolator(Interpolator interpolator) {
+        if (!mScroller.isFinished()) {
+            mScroller.abortAnimation();
+            mIsScrolling = false;
+            scrollTo(mScroller.getFinalX());
+        }
+        mScroller = new Scroller(interpolator);
+    }
+
+    /**
+     * Set the easing curve applied to the header and background while the panorama wraps
+     * around, e.g. one of {@link Easing}. null (the default) moves them linearly.
+     */
+    public void setSlidingInterpolator(Interpolator interpolator) {
+        mSlidingInterpolator = interpolator;
+    }
+
+    // ================================ section transactions =================================
+
+    /**
+     * Start a batch of section changes. Changes made through {@link #addSection},
+     * {@link #removeSection}, {@link #moveSection} and {@link #setSectionVisible} are collected
+     * and applied in one measure and layout pass by {@link #commitSectionTransaction}.
+     * Transactions may nest, only the outermost commit applies the changes.
+     */
+    public void beginSectionTransaction() {
+        if (mTransactionDepth++ > 0) {
+            return;
+        }
+        // land a running scroll so that the anchor is stable
+        if (!mScroller.isFinished()) {
+            mScroller.abortAnimation();
+            mIsScrolling = false;
+            scrollTo(mScroller.getFinalX());
+        }
+        // remember where the viewport is relative to the current section
+        mAnchorSectionIndex = findCurrentSectionIndex();
+        if (mAnchorSectionIndex == INVALID_POINTER) {
+            mAnchorSection = null;
+            mAnchorOffset = 0;
+        }
+        else {
+            mAnchorSection = mSectionList.get(mAnchorSectionIndex);
+            mAnchorOffset = getScrollX() - (mAnchorSection.getLeft() - DEFAULT_SECTION_LEFT_MARGIN);
+        }
+        mAnimateTransaction = false;
+    }
+
+    /**
+     * Apply the changes of the transaction in one measure and layout pass. The viewport keeps
+     * its position relative to the current section, or moves to the section taking its place
+     * if the current section was removed or hidden.
+     * @param animate whether sections added or shown by the transaction flip in
+     */
+    public void commitSectionTransaction(boolean animate) {
+        if (mTransactionDepth == 0) {
+            throw new Error("no section transaction to commit");
+        }
+        mAnimateTransaction |= animate;
+        if (--mTransactionDepth > 0) {
+            return;
+        }
+        if (mIsLayoutRequestedInTransaction) {
+            mIsLayoutRequestedInTransaction = false;
+            mHasPendingAnchor = true;
+            super.requestLayout();
+            mRenderScheduler.requestFrame();
+        }
+    }
+
+    /*
+     * Layout requests are held back until the transaction is committed.
+     */
+    @Override
+    public void requestLayout() {
+        if (mTransactionDepth > 0) {
+            mIsLayoutRequestedInTransaction = true;
+            return;
+        }
+        super.requestLayout();
+    }
+
+    public void addSection(PanoramaSection ps) {
+        addSection(mSectionList.size(), ps);
+    }
+
+    /**
+     * Insert a section at the given position among the sections. Outside of a transaction the
+     * change is committed right away.
+     */
+    public void addSection(int index, PanoramaSection ps) {
+        final boolean autoCommit = mTransactionDepth == 0;
+        if (autoCommit) {
+            beginSectionTransaction();
+        }
+        ViewGroup.LayoutParams lp = ps.getLayoutParams();
+        if (!(lp instanceof LayoutParams)) {
+            lp = lp == null ? generateDefaultLayoutParams() : generateLayoutParams(lp);
+        }
+        addViewInLayout(ps, getSectionChildIndex(index), lp, true);
+        mSectionList.add(index, ps);
+        mSectionGeometry.invalidateFrom(index);
+        if (ps.getVisibility() != View.GONE) {
+            mAppearingSections.add(ps);
+        }
+        mIsLayoutRequestedInTransaction = true;
+        if (autoCommit) {
+            commitSectionTransaction(false);
+        }
+    }
+
+    /**
+     * Remove a section. Outside of a transaction the change is committed right away.
+     */
+    public void removeSection(PanoramaSection ps) {
+        final int index = mSectionList.indexOf(ps);
+        if (index < 0) {
+            return;
+        }
+        final boolean autoCommit = mTransactionDepth == 0;
+        if (autoCommit) {
+            beginSectionTransaction();
+        }
+        mSectionList.remove(index);
+        mAppearingSections.remove(ps);
+        mPendingSnapshots.remove(ps);
+        mOverview.invalidateSection(ps);
+        if (ps == mOriginalSection) {
+            mOriginalSection = null;
+        }
+        final Bitmap snapshot = mSnapshotCache.remove(ps);
+        if (snapshot != null) {
+            snapshot.recycle();
+        }
+        final Bitmap frozen = ps.unfreeze();
+        if (frozen != null) {
+            frozen.recycle();
+        }
+        removeViewInLayout(ps);
+        mSectionGeometry.invalidateFrom(index);
+        mIsLayoutRequestedInTransaction = true;
+        if (autoCommit) {
+            commitSectionTransaction(false);
+        }
+    }
+
+    /**
+     * Move a section to another position among the sections. Outside of a transaction the
+     * change is committed right away.
+     */
+    public void moveSection(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        final boolean autoCommit = mTransactionDepth == 0;
+        if (autoCommit) {
+            beginSectionTransaction();
+        }
+        // reorder without detaching the section from the window
+        final PanoramaSection ps = mSectionList.remove(from);
+        detachViewFromParent(ps);
+        mSectionList.add(to, ps);
+        attachViewToParent(ps, getSectionChildIndex(to + 1), ps.getLayoutParams());
+        mSectionGeometry.invalidateFrom(Math.min(from, to));
+        mIsLayoutRequestedInTransaction = true;
+        if (autoCommit) {
+            commitSectionTransaction(false);
+        }
+    }
+
+    /**
+     * Show a section or hide it with View.GONE. Outside of a transaction the change is
+     * committed right away.
+     */
+    public void setSectionVisible(PanoramaSection ps, boolean visible) {
+        final int index = mSectionList.indexOf(ps);
+        if (index < 0 || (ps.getVisibility() != View.GONE) == visible) {
+            return;
+        }
+        final boolean autoCommit = mTransactionDepth == 0;
+        if (autoCommit) {
+            beginSectionTransaction();
+        }
+        ps.setVisibility(visible ? View.VISIBLE : View.GONE);
+        if (visible) {
+            mAppearingSections.add(ps);
+        }
+        else {
+            mAppearingSections.remove(ps);
+        }
+        mSectionGeometry.invalidateFrom(index);
+        mIsLayoutRequestedInTransaction = true;
+        if (autoCommit) {
+            commitSectionTransaction(false);
+        }
+    }
+
+    public int getSectionCount() {
+        return mSectionList.size();
+    }
+
+    public PanoramaSection getSectionAt(int index) {
+        return mSectionList.get(index);
+    }
+
+    /**
+     * Jump to a section without scrolling through the sections in between. Before the first
+     * layout this sets the initial section, so only sections near it are ever laid out in the
+     * viewport.
+     */
+    public void setCurrentSection(int index) {
+        if (index < 0) {
+            throw new Error("invalid section index");
+        }
+        if (!mScroller.isFinished()) {
+            mScroller.abortAnimation();
+            mIsScrolling = false;
+        }
+        mPendingSectionIndex = index;
+        mPendingSectionOffset = 0;
+        mPendingWrapCount = 0;
+        requestLayout();
+        mRenderScheduler.requestFrame();
+    }
+
+    /**
+     * Show every section as a thumbnail in one strip instead of the live sections, or go back
+     * to the sections. Tapping a thumbnail jumps to its section, pinching in and out switches
+     * the mode as well.
+     */
+    public void setOverviewMode(boolean overview) {
+        if (overview == mOverview.isShowing()) {
+            return;
+        }
+        mIsOverviewTouchActive = false;
+        if (overview) {
+            // 1. come to rest at the left edge of the current section
+            if (mIsBeingDragged) {
+                mDragFrameScheduler.cancel();
+                mIsBeingDragged = false;
+                mActivePointerId = INVALID_POINTER;
+            }
+            final int index = findCurrentSectionIndex();
+            if (index != INVALID_POINTER) {
+                setCurrentSection(index);
+            }
+            else if (!mScroller.isFinished()) {
+                mScroller.abortAnimation();
+                mIsScrolling = false;
+            }
+            setScrollState(SCROLL_STATE_IDLE);
+
+            // 2. show the strip
+            mOverview.show(index);
+        }
+        else {
+            mOverview.hide();
+        }
+        mRenderScheduler.requestFrame();
+    }
+
+    public boolean isInOverviewMode() {
+        return mOverview.isShowing();
+    }
+
+    /**
+     * Set the size of the overview thumbnails relative to their sections.
+     */
+    public void setOverviewThumbnailScale(float scale) {
+        mOverview.setThumbnailScale(scale);
+        if (mOverview.isShowing()) {
+            mOverview.show(findCurrentSectionIndex());
+            mRenderScheduler.requestFrame();
+        }
+    }
+
+    /**
+     * @return the index of the section at the left edge of the viewport, or -1 if none
+     */
+    public int getCurrentSectionIndex() {
+        return mPendingSectionIndex != INVALID_POINTER ? mPendingSectionIndex : findCurrentSectionIndex();
+    }
+
+    /*
+     * Scroll to the pending position once the geometry is up to date. Called by onLayout.
+     */
+    private void applyPendingSection() {
+        int index = Math.min(mPendingSectionIndex, mSectionList.size());
+        mPendingSectionIndex = INVALID_POINTER;
+        // take the next valid section, or the last one
+        while (index < mSectionList.size() && mSectionList.get(index).getVisibility() == View.GONE) {
+            index++;
+        }
+        int offset = mPendingSectionOffset;
+        if (index == mSectionList.size()) {
+            index = mSectionGeometry.getLastValidIndex();
+            offset = 0;
+        }
+        if (index != SectionGeometry.NO_SECTION) {
+            jumpTo(mSectionGeometry.getOffset(index) + offset + mPendingWrapCount * getMeasuredContentWidth());
+        }
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        final SavedState ss = new SavedState(super.onSaveInstanceState());
+        if (mPendingSectionIndex != INVALID_POINTER) {
+            // not laid out since the position was set
+            ss.sectionIndex = mPendingSectionIndex;
+            ss.sectionOffset = mPendingSectionOffset;
+            ss.wrapCount = mPendingWrapCount;
+            return ss;
+        }
+        // a settling scroll is saved where it comes to rest, unwrapped as it would be by then
+        int x = mIsScrolling ? mScroller.getFinalX() : getScrollX();
+        final int contentWidth = getMeasuredContentWidth();
+        if (contentWidth > 0) {
+            final int wrapCount = (int) Math.floor((float) x / contentWidth);
+            x -= wrapCount * contentWidth;
+            ss.wrapCount = mIsScrolling ? 0 : wrapCount;
+        }
+        ss.sectionIndex = mSectionGeometry.findSectionAt(x);
+        ss.sectionOffset = ss.sectionIndex == SectionGeometry.NO_SECTION ? 0 : x - mSectionGeometry.getOffset(ss.sectionIndex);
+        return ss;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+        final SavedState ss = (SavedState) state;
+        super.onRestoreInstanceState(ss.getSuperState());
+        if (ss.sectionIndex != SectionGeometry.NO_SECTION) {
+            mPendingSectionIndex = ss.sectionIndex;
+            mPendingSectionOffset = ss.sectionOffset;
+            mPendingWrapCount = ss.wrapCount;
+            requestLayout();
+        }
+    }
+
+    /*
+     * @return the child index the section at the given position among the sections has, or
+     * would have if one was inserted there
+     */
+    private int getSectionChildIndex(int index) {
+        return index < mSectionList.size() ? indexOfChild(mSectionList.get(index)) : indexOfChild(mHeaderMirage);
+    }
+
+    /*
+     * Scroll back to the position relative to the anchor section recorded when the last
+     * transaction began. Called by onLayout once the geometry is up to date.
+     */
+    private void restoreAnchorSection() {
+        mHasPendingAnchor = false;
+        if (mAnchorSectionIndex == INVALID_POINTER) {
+            return;
+        }
+        int index = mAnchorSection == null ? -1 : mSectionList.indexOf(mAnchorSection);
+        int offset = mAnchorOffset;
+        if (index < 0 || mAnchorSection.getVisibility() == View.GONE) {
+            // take the next valid section at the old position, or the last one
+            index = SectionGeometry.NO_SECTION;
+            for (int i = Math.min(mAnchorSectionIndex, mSectionList.size()); i < mSectionList.size(); ++i) {
+                if (mSectionList.get(i).getVisibility() != View.GONE) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index == SectionGeometry.NO_SECTION) {
+                index = mSectionGeometry.getLastValidIndex();
+            }
+            offset = 0;
+        }
+        mAnchorSection = null;
+        if (index != SectionGeometry.NO_SECTION) {
+            jumpTo(mSectionGeometry.getOffset(index) + offset);
+        }
     }
 
     PanoramaSection findCurrentSection() {
@@ -1088,11 +2402,20 @@ public class PanoramaView extends ViewGroup {
 
     @Override
     public void draw (Canvas canvas) {
+        mRenderScheduler.onFrameDrawn();
+        if (mAdaptiveQuality && mScrollState != SCROLL_STATE_IDLE) {
+            // every settling frame is requested by the previous one, dragging frames only
+            // while the finger keeps moving
+            mQualityGovernor.onFrame(System.nanoTime(), mScrollState == SCROLL_STATE_SETTLING
+                                     || mRenderScheduler.isBackToBackMotionFrame());
+        }
+
         super.draw(canvas);
 
         if (mDebugMode) {
             final int infoBarHeight = 40;
-            Paint pt = new Paint();
+            final Paint pt = mDebugPaint;
+            pt.reset();
             pt.setStyle(Paint.Style.STROKE);
             pt.setColor(Color.GREEN);
             canvas.drawRect(mBackgroundLeft, getTop(), mBackgroundLeft + mBackgroundWidth - 1.0f, getHeight() - 1.0f, pt);
@@ -1101,87 +2424,392 @@ public class PanoramaView extends ViewGroup {
             pt.setColor(Color.CYAN);
             canvas.drawRect(mHeaderMirage.getLeft(), mHeaderMirage.getTop(), mHeaderMirage.getRight() - 1.0f, mHeaderMirage.getBottom() - 1.0f, pt);
             pt.setColor(Color.RED);
-            for (PanoramaSection ps : mSectionList) {
+            for (int i = 0; i < mSectionList.size(); ++i) {
+                final PanoramaSection ps = mSectionList.get(i);
                 canvas.drawRect(ps.getLeft(), ps.getTop(), ps.getRight() - 1.0f, ps.getBottom() - 1.0f, pt);
             }
             pt.setColor(0xaa000000);
             pt.setStyle(Paint.Style.FILL);
             pt.setAntiAlias(true);
             canvas.drawRect(getScrollX(), getScrollY() + getBottom() - infoBarHeight, getScrollX() + getRight(), getScrollY() + getBottom(), pt);
-            StringBuilder sb = new StringBuilder();
+            final StringBuilder sb = mDebugText;
+            sb.setLength(0);
             sb.append("Lv=");
             sb.append(getScrollX());
             sb.append(" Lh=");
             sb.append(mHeader.getLeft());
             sb.append(" Lb=");
             sb.append(mBackgroundLeft);
+            sb.append(" D=");
+            sb.append(mDrawnChildCount);
+            sb.append(" C=");
+            sb.append(mCulledChildCount);
             pt.setColor(Color.WHITE);
             pt.setTextSize(24);
-            canvas.drawText(sb.toString(), getScrollX() + 10, getScrollY() + getBottom() - 12, pt);
+            canvas.drawText(sb, 0, sb.length(), getScrollX() + 10, getScrollY() + getBottom() - 12, pt);
         }
 
         if (mDemoMode) {
             if (mLastMotionX >=0 && mLastMotionY >= 0) {
-                Paint pt = new Paint();
-                pt.setColor(0xaaffff00);
-                pt.setAntiAlias(true);
-                canvas.drawCircle(getScrollX() + mLastMotionX, getScrollY() + mLastMotionY, 60, pt);
+                canvas.drawCircle(getScrollX() + mLastMotionX, getScrollY() + mLastMotionY, 60, mDemoPaint);
+            }
+        }
+    }
+
+    /*
+     * Draw only the children intersecting the viewport. While wrapping, sections are laid out
+     * at both ends of the content strip, so most of them are far away from [scrollX, scrollX + width].
+     * Children with a running animation are always drawn since their transformation may bring
+     * them into the viewport. ViewGroup still dispatches, so that disappearing children finish
+     * their animations and the padding is clipped.
+     */
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        if (mOverview.isShowing()) {
+            // the strip replaces all children
+            mOverview.draw(canvas, getScrollX());
+            mDrawnChildCount = 0;
+            mCulledChildCount = getChildCount();
+            return;
+        }
+        // counted by drawChild
+        mDrawnChildCount = 0;
+        mCulledChildCount = 0;
+        super.dispatchDraw(canvas);
+    }
+
+    /*
+     * Skip the children outside of the viewport, then blit the header and the header mirage
+     * from mHeaderRenderCache instead of drawing the header twice. Animated children, e.g.
+     * disappearing ones, and frozen mirages draw themselves. So does the header under hardware
+     * acceleration, its display list is kept up to date by the framework and is as cheap to
+     * draw twice as a raster.
+     */
+    @Override
+    protected boolean drawChild(Canvas canvas, View child, long drawingTime) {
+        final int viewportLeft = getScrollX();
+        if (child.getAnimation() == null
+                && (child.getRight() <= viewportLeft || child.getLeft() >= viewportLeft + getWidth())) {
+            mCulledChildCount++;
+            return false;
+        }
+        mDrawnChildCount++;
+        if ((child == mHeader || (child == mHeaderMirage && !mHeaderMirage.isFrozen()))
+                && child.getAnimation() == null && !mIsHardwareAccelerated) {
+            // an animated header, e.g. by an AlphaAnimation, is left to ViewGroup, which
+            // applies its Transformation
+            final Bitmap render = mHeaderRenderCache.get();
+            if (render != null) {
+                mHeaderPaint.setAlpha(mHeaderRenderCache.getAlpha());
+                if (child == mHeader) {
+                    canvas.drawBitmap(render, child.getLeft(), child.getTop(), mHeaderPaint);
+                }
+                else {
+                    mHeaderMirage.drawRender(canvas, render, mHeaderPaint);
+                }
+                return false;
             }
         }
+        return super.drawChild(canvas, child, drawingTime);
+    }
+
+    /*
+     * Before API level 11 the dirty state of the header can't be read, any invalidation coming
+     * from the position of the header then means its contents changed, since onLayout moves
+     * the header without invalidating it. There is no hardware acceleration there, so every
+     * invalidation goes through this method.
+     */
+    @Override
+    public ViewParent invalidateChildInParent(int[] location, Rect dirty) {
+        if (mHeaderRenderCache != null && !RenderCompat.canTellDirty()
+                && location[0] == mHeader.getLeft() && location[1] == mHeader.getTop()) {
+            mHeaderRenderCache.invalidate();
+        }
+        return super.invalidateChildInParent(location, dirty);
+    }
+
+    /**
+     * Render the header again in the next frame. The header render is refreshed automatically
+     * when the header invalidates itself, call this after changing the header in ways that
+     * don't invalidate it.
+     */
+    public void invalidateHeader() {
+        mHeaderRenderCache.invalidate();
+        mRenderScheduler.requestFrame();
+    }
+
+    /**
+     * @return the number of children drawn in the last drawing pass
+     */
+    public int getDrawnChildCount() {
+        return mDrawnChildCount;
+    }
+
+    /**
+     * @return the number of children skipped in the last drawing pass because they lie
+     *         entirely outside of the viewport
+     */
+    public int getCulledChildCount() {
+        return mCulledChildCount;
+    }
+
+    /**
+     * @return the number of frames drawn within the last second while the panorama was at
+     *         rest, 0 unless its contents changed
+     */
+    public int getFrameRateAtRest() {
+        return mRenderScheduler.getFrameRateAtRest();
+    }
+
+    /**
+     * @return the number of frames drawn within the last second while the panorama was
+     *         dragged or settling
+     */
+    public int getFrameRateInMotion() {
+        return mRenderScheduler.getFrameRateInMotion();
+    }
+
+    /**
+     * Cap the frame rate of purely decorative updates, e.g. the touch circle of demo mode.
+     */
+    public void setMaxDecorativeFrameRate(int fps) {
+        mRenderScheduler.setMaxDecorativeFrameRate(fps);
     }
 
-    // TODO add tinting and Gaussian blur effect for background
     @Override
     protected void onDraw (Canvas canvas) {
         if (mBackgroundDrawable != null) {
+            TraceCompat.beginSection("PanoramaView#drawBackground");
+            if (hasBackgroundEffects() && mProcessedBackgroundGeneration != mBackgroundGeneration
+                    && mPendingBackgroundGeneration != mBackgroundGeneration) {
+                processBackground();
+            }
+            if (mProcessedBackground == null && mQualityLevel.compareTo(QualityLevel.LOW_RES_BACKGROUND) >= 0) {
+                prepareLowResBackground();
+            }
+
             final int viewportLeft = getScrollX();
-            mBackgroundDrawable.setBounds(mBackgroundLeft, 0, mBackgroundLeft + mBackgroundWidth, mBackgroundHeight);
-            mBackgroundDrawable.draw(canvas);
+            drawBackground(canvas, mBackgroundLeft);
 
             if (viewportLeft < 0 || mBackgroundLeft < 0) { // wrap to tail
-                mBackgroundDrawable.setBounds(mBackgroundLeft - mBackgroundWidth, 0, mBackgroundLeft, mBackgroundHeight);
-                mBackgroundDrawable.draw(canvas);
+                drawBackground(canvas, mBackgroundLeft - mBackgroundWidth);
             }
 
             if (mBackgroundLeft + mBackgroundWidth < viewportLeft + getWidth()) { // wrap to head
-                mBackgroundDrawable.setBounds(mBackgroundLeft + mBackgroundWidth, 0, mBackgroundLeft + 2 * mBackgroundWidth, mBackgroundHeight);
-                mBackgroundDrawable.draw(canvas);
+                drawBackground(canvas, mBackgroundLeft + mBackgroundWidth);
+            }
+            TraceCompat.endSection();
+        }
+    }
+
+    /*
+     * Draw one copy of the background with its left edge at left.
+     */
+    private void drawBackground(Canvas canvas, int left) {
+        if (mProcessedBackground != null) {
+            mBackgroundRect.set(left, 0, left + mBackgroundWidth, mBackgroundHeight);
+            canvas.drawBitmap(mProcessedBackground, null, mBackgroundRect, mLowResBackgroundPaint);
+        }
+        else if (mLowResBackground != null) {
+            mLowResBackgroundTime = SystemClock.uptimeMillis();
+            mBackgroundRect.set(left, 0, left + mBackgroundWidth, mBackgroundHeight);
+            canvas.drawBitmap(mLowResBackground, null, mBackgroundRect, mLowResBackgroundPaint);
+        }
+        else {
+            mBackgroundDrawable.setBounds(left, 0, left + mBackgroundWidth, mBackgroundHeight);
+            mBackgroundDrawable.draw(canvas);
+        }
+    }
+
+    /*
+     * Render the background into a bitmap DEFAULT_LOW_RES_BACKGROUND_SCALE times smaller,
+     * unless there is already one of the right size.
+     */
+    private void prepareLowResBackground() {
+        final int width = Math.max(1, mBackgroundWidth / DEFAULT_LOW_RES_BACKGROUND_SCALE);
+        final int height = Math.max(1, mBackgroundHeight / DEFAULT_LOW_RES_BACKGROUND_SCALE);
+        if (mLowResBackground != null) {
+            if (mLowResBackground.getWidth() == width && mLowResBackground.getHeight() == height) {
+                return;
             }
+            releaseLowResBackground();
+        }
+        try {
+            mLowResBackground = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        }
+        catch (OutOfMemoryError e) {
+            Log.w(LOG_TAG, "not enough memory for low resolution background");
+            return;
+        }
+        final Canvas canvas = new Canvas(mLowResBackground);
+        canvas.scale((float) width / mBackgroundWidth, (float) height / mBackgroundHeight);
+        mBackgroundDrawable.setBounds(0, 0, mBackgroundWidth, mBackgroundHeight);
+        mBackgroundDrawable.draw(canvas);
+        if (mLowResBackgroundPaint == null) {
+            mLowResBackgroundPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        }
+        mLowResBackgroundTime = SystemClock.uptimeMillis();
+    }
+
+    private boolean hasBackgroundEffects() {
+        return mBackgroundBlurRadius > 0 || Color.alpha(mBackgroundTint) > 0;
+    }
+
+    /*
+     * Render a downscaled copy of the background and hand it over to mBackgroundProcessor. The
+     * current processed background, if any, is drawn until the result arrives.
+     */
+    private void processBackground() {
+        if (mBackgroundWidth <= 0 || mBackgroundHeight <= 0) {
+            return;
+        }
+        final int width = Math.max(1, mBackgroundWidth / DEFAULT_LOW_RES_BACKGROUND_SCALE);
+        final int height = Math.max(1, mBackgroundHeight / DEFAULT_LOW_RES_BACKGROUND_SCALE);
+        final Bitmap source;
+        try {
+            source = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+        catch (OutOfMemoryError e) {
+            Log.w(LOG_TAG, "not enough memory to process the background");
+            return;
+        }
+        final Canvas canvas = new Canvas(source);
+        canvas.scale((float) width / mBackgroundWidth, (float) height / mBackgroundHeight);
+        mBackgroundDrawable.setBounds(0, 0, mBackgroundWidth, mBackgroundHeight);
+        mBackgroundDrawable.draw(canvas);
+
+        if (mBackgroundProcessor == null) {
+            mBackgroundProcessor = new BackgroundProcessor();
+        }
+        mPendingBackgroundGeneration = mBackgroundGeneration;
+        mBackgroundProcessor.process(source, mBackgroundBlurRadius / DEFAULT_LOW_RES_BACKGROUND_SCALE,
+                                     mBackgroundTint, mBackgroundGeneration, mBackgroundProcessorCallback);
+    }
+
+    private void releaseProcessedBackground() {
+        if (mProcessedBackground != null) {
+            mProcessedBackground.recycle();
+            mProcessedBackground = null;
+        }
+        mProcessedBackgroundGeneration = -1;
+    }
+
+    /**
+     * Blur the background, the radius is in pixels. The blurred background is computed once
+     * in the background and cached, 0 turns blurring off.
+     */
+    public void setBackgroundBlurRadius(int radius) {
+        mBackgroundBlurRadius = radius;
+        mBackgroundGeneration++;
+        if (!hasBackgroundEffects()) {
+            releaseProcessedBackground();
+        }
+        mRenderScheduler.requestFrame();
+    }
+
+    public int getBackgroundBlurRadius() {
+        return mBackgroundBlurRadius;
+    }
+
+    /**
+     * Blend a color over the background, the alpha of the color is the strength of the tint.
+     * Color.TRANSPARENT turns tinting off.
+     */
+    public void setBackgroundTint(int color) {
+        mBackgroundTint = color;
+        mBackgroundGeneration++;
+        if (!hasBackgroundEffects()) {
+            releaseProcessedBackground();
+        }
+        mRenderScheduler.requestFrame();
+    }
+
+    public int getBackgroundTint() {
+        return mBackgroundTint;
+    }
+
+    private void releaseLowResBackground() {
+        if (mLowResBackground != null) {
+            mLowResBackground.recycle();
+            mLowResBackground = null;
         }
     }
 
     @Override
     public void setBackgroundDrawable(Drawable d) {
         mBackgroundDrawable = d;
+        mBackgroundGeneration++;
+        releaseLowResBackground();
+        releaseProcessedBackground();
+        // also called by the View constructor, before mRenderScheduler exists
         invalidate();
     }
 
+    /*
+     * Switch effects on or off according to the quality level and tell the listener.
+     */
+    private void setQualityLevel(QualityLevel level) {
+        if (mQualityLevel == level) {
+            return;
+        }
+        mQualityLevel = level;
+        if (level.compareTo(QualityLevel.LOW_RES_BACKGROUND) < 0) {
+            releaseLowResBackground();
+        }
+        if (level.compareTo(QualityLevel.FROZEN_MIRAGES) < 0 && mHeaderMirage.isFrozen()) {
+            mHeaderMirage.unfreeze();
+        }
+        requestLayout();
+        mRenderScheduler.requestFrame();
+        if (mOnQualityLevelChangedListener != null) {
+            mOnQualityLevelChangedListener.onQualityLevelChanged(this, level);
+        }
+    }
+
+    public QualityLevel getQualityLevel() {
+        return mQualityLevel;
+    }
+
+    /*
+     * Whether flips started now in this panorama should only slide, see QualityLevel.
+     */
+    boolean isFlipTranslateOnly() {
+        return mQualityLevel.compareTo(QualityLevel.TRANSLATING_FLIPS) >= 0;
+    }
+
+    public final boolean isAdaptiveQualityEnabled() {
+        return mAdaptiveQuality;
+    }
+
+    /**
+     * If enabled, the panorama watches the frame intervals while scrolling and gives up effects
+     * step by step when frames are dropped, see {@link QualityLevel}. It goes back to higher
+     * levels once frames recover.
+     */
+    public final void setAdaptiveQualityEnabled(boolean m) {
+        mAdaptiveQuality = m;
+        if (!m) {
+            mQualityGovernor.reset();
+            setQualityLevel(QualityLevel.FULL);
+        }
+    }
+
+    public final void setOnQualityLevelChangedListener(OnQualityLevelChangedListener l) {
+        mOnQualityLevelChangedListener = l;
+    }
+
     private int getLastValidSectionWidth() {
         return mSectionList.get(getLastValidSectionIndex()).getWidth();
     }
 
     private int getLastValidSectionIndex() {
-        final int sectionCount = mSectionList.size();
-        int lastValidSectionIndex = sectionCount;
-        for (int i = sectionCount - 1; i >= 0; --i) {
-            if (mSectionList.get(i).getVisibility() != View.GONE) {
-                lastValidSectionIndex = i;
-                break;
-            }
-        }
-        return lastValidSectionIndex;
+        final int lastValidSectionIndex = mSectionGeometry.getLastValidIndex();
+        return lastValidSectionIndex == SectionGeometry.NO_SECTION ? mSectionList.size() : lastValidSectionIndex;
     }
 
     private int getFirstValidSectionIndex() {
-        final int sectionCount = mSectionList.size();
-        int firstValidSectionIndex = 0;
-        for (int i = 0; i < sectionCount; ++i) {
-            if (mSectionList.get(i).getVisibility() != View.GONE) {
-                firstValidSectionIndex = i;
-                break;
-            }
-        }
-        return firstValidSectionIndex;
+        final int firstValidSectionIndex = mSectionGeometry.getFirstValidIndex();
+        return firstValidSectionIndex == SectionGeometry.NO_SECTION ? 0 : firstValidSectionIndex;
     }
 
     // ============================= Debug Facilities ===========================
@@ -1234,6 +2862,43 @@ public class PanoramaView extends ViewGroup {
         mDemoMode = m;
     }
 
+    public final boolean isPredictiveDragEnabled() {
+        return mPredictiveDrag;
+    }
+
+    /**
+     * If enabled, the panorama extrapolates the finger position to the time the next frame is
+     * displayed while dragging, which hides most of the touch-to-display latency.
+     */
+    public final void setPredictiveDragEnabled(boolean m) {
+        mPredictiveDrag = m;
+    }
+
+    /**
+     * Register a callback to be told the touch-to-scroll latency of every frame while dragging.
+     */
+    public final void setOnDragLatencyListener(OnDragLatencyListener l) {
+        mOnDragLatencyListener = l;
+    }
+
+    public final boolean isFreezingWhileScrolling() {
+        return mFreezeWhileScrolling;
+    }
+
+    /**
+     * If enabled, sections visible when a drag or fling starts are replaced by snapshots until
+     * the panorama comes to rest, so that scrolling does not depend on the complexity of
+     * section contents. Sections scrolled into view meanwhile are drawn live.
+     */
+    public final void setFreezeWhileScrolling(boolean m) {
+        mFreezeWhileScrolling = m;
+        if (!m) {
+            for (PanoramaSection ps : mSectionList) {
+                releaseSectionSnapshot(ps);
+            }
+        }
+    }
+
 
     //================================= inner classes =====================================
 
@@ -1251,6 +2916,308 @@ public class PanoramaView extends ViewGroup {
         VERTICAL_FILL,
     }
 
+    /**
+     * Quality levels of the adaptive quality mode, each level gives up the effects of the
+     * previous levels as well.
+     */
+    public static enum QualityLevel {
+        /** all effects */
+        FULL,
+        /** TOWED sliding style falls back to SYNCED */
+        SYNCED_PARALLAX,
+        /** the background is drawn from a cached low resolution copy */
+        LOW_RES_BACKGROUND,
+        /** flip animations translate instead of rotating and fading */
+        TRANSLATING_FLIPS,
+        /** the header mirage is drawn from a snapshot only */
+        FROZEN_MIRAGES,
+    }
+
+    /**
+     * Interface definition for a callback to be invoked when the adaptive quality level changes.
+     */
+    public static interface OnQualityLevelChangedListener {
+        void onQualityLevelChanged(PanoramaView panorama, QualityLevel level);
+    }
+
+    /**
+     * Interface definition for a callback to be invoked when the sections predicted to come
+     * into view change during dragging or flinging.
+     */
+    public static interface OnSectionPrefetchListener {
+        /**
+         * @param panorama the panorama being scrolled
+         * @param direction 1 if the viewport moves towards the next sections, -1 otherwise
+         * @param velocity the velocity of the viewport in pixels per second
+         * @param nextIndex index of the section predicted to come into view next, the index
+         *        wraps across the ends of the panorama
+         * @param previousIndex index of the section adjacent to the trailing edge of the
+         *        viewport, which comes back first if the direction reverses
+         */
+        void onPrefetchSections(PanoramaView panorama, int direction, float velocity, int nextIndex, int previousIndex);
+    }
+
+    /**
+     * Interface definition for a callback to be invoked for every scroll update applied while
+     * dragging.
+     */
+    public static interface OnDragLatencyListener {
+        /**
+         * @param panorama the panorama being dragged
+         * @param lag milliseconds between the latest touch sample and the scroll update
+         * @param prediction milliseconds the finger position was extrapolated ahead of the
+         *        latest sample, always 0 unless predictive dragging is enabled
+         */
+        void onDragLatency(PanoramaView panorama, long lag, long prediction);
+    }
+
+    /**
+     * <p>
+     * Immutable construction options of a panorama, the typed counterpart of the XML
+     * attributes. One config may be shared by any number of panoramas, drawables are copied
+     * through their constant state for each of them.
+     * </p>
+     * <p>
+     * NOTE: Title, title color, icon and header visibility only apply to the generated header.
+     * </p>
+     * @author jiaoye
+     *
+     */
+    public static final class Config {
+
+        public static final Config DEFAULT = new Builder().build();
+
+        final String title;
+        final int titleColor;
+        final Drawable icon;
+        final int headerVisibility;
+        final Drawable background;
+        final int backgroundBlurRadius;
+        final int backgroundTint;
+        final SlidingStyle slidingStyle;
+        final BackgroundScalingStyle backgroundScalingStyle;
+        final boolean debugMode;
+        final boolean demoMode;
+        final boolean freezeWhileScrolling;
+        final boolean predictiveDrag;
+        final boolean adaptiveQuality;
+        final int initialSection;
+
+        private Config(Builder b) {
+            title = b.mTitle;
+            titleColor = b.mTitleColor;
+            icon = b.mIcon;
+            headerVisibility = b.mHeaderVisibility;
+            background = b.mBackground;
+            backgroundBlurRadius = b.mBackgroundBlurRadius;
+            backgroundTint = b.mBackgroundTint;
+            slidingStyle = b.mSlidingStyle;
+            backgroundScalingStyle = b.mBackgroundScalingStyle;
+            debugMode = b.mDebugMode;
+            demoMode = b.mDemoMode;
+            freezeWhileScrolling = b.mFreezeWhileScrolling;
+            predictiveDrag = b.mPredictiveDrag;
+            adaptiveQuality = b.mAdaptiveQuality;
+            initialSection = b.mInitialSection;
+        }
+
+        /*
+         * A drawable can only have one callback, so every view gets a copy of its own.
+         */
+        static Drawable newDrawable(Drawable d) {
+            if (d == null) {
+                return null;
+            }
+            final Drawable.ConstantState state = d.getConstantState();
+            return state == null ? d : state.newDrawable();
+        }
+
+        public static final class Builder {
+            private String mTitle;
+            private int mTitleColor = DEFAULT_TITLE_COLOR;
+            private Drawable mIcon;
+            private int mHeaderVisibility = View.VISIBLE;
+            private Drawable mBackground;
+            private int mBackgroundBlurRadius;
+            private int mBackgroundTint = Color.TRANSPARENT;
+            private SlidingStyle mSlidingStyle = SlidingStyle.TOWED;
+            private BackgroundScalingStyle mBackgroundScalingStyle = BackgroundScalingStyle.VERTICAL_STRETCH;
+            private boolean mDebugMode;
+            private boolean mDemoMode;
+            private boolean mFreezeWhileScrolling;
+            private boolean mPredictiveDrag;
+            private boolean mAdaptiveQuality;
+            private int mInitialSection = INVALID_POINTER;
+
+            public Builder() {
+            }
+
+            /**
+             * Start from the options of an existing config.
+             */
+            public Builder(Config c) {
+                mTitle = c.title;
+                mTitleColor = c.titleColor;
+                mIcon = c.icon;
+                mHeaderVisibility = c.headerVisibility;
+                mBackground = c.background;
+                mBackgroundBlurRadius = c.backgroundBlurRadius;
+                mBackgroundTint = c.backgroundTint;
+                mSlidingStyle = c.slidingStyle;
+                mBackgroundScalingStyle = c.backgroundScalingStyle;
+                mDebugMode = c.debugMode;
+                mDemoMode = c.demoMode;
+                mFreezeWhileScrolling = c.freezeWhileScrolling;
+                mPredictiveDrag = c.predictiveDrag;
+                mAdaptiveQuality = c.adaptiveQuality;
+                mInitialSection = c.initialSection;
+            }
+
+            public Builder setTitle(String title) {
+                mTitle = title;
+                return this;
+            }
+
+            public Builder setTitleColor(int color) {
+                mTitleColor = color;
+                return this;
+            }
+
+            public Builder setIcon(Drawable icon) {
+                mIcon = icon;
+                return this;
+            }
+
+            /**
+             * @param visibility View.VISIBLE, View.INVISIBLE or View.GONE
+             */
+            public Builder setHeaderVisibility(int visibility) {
+                if (visibility != View.VISIBLE && visibility != View.INVISIBLE && visibility != View.GONE) {
+                    throw new Error("invalid header visibility");
+                }
+                mHeaderVisibility = visibility;
+                return this;
+            }
+
+            public Builder setBackground(Drawable background) {
+                mBackground = background;
+                return this;
+            }
+
+            public Builder setBackgroundBlurRadius(int radius) {
+                if (radius < 0) {
+                    throw new Error("blur radius can't be negative");
+                }
+                mBackgroundBlurRadius = radius;
+                return this;
+            }
+
+            public Builder setBackgroundTint(int color) {
+                mBackgroundTint = color;
+                return this;
+            }
+
+            public Builder setSlidingStyle(SlidingStyle style) {
+                if (style == null) {
+                    throw new Error("invalid sliding style");
+                }
+                mSlidingStyle = style;
+                return this;
+            }
+
+            public Builder setBackgroundScalingStyle(BackgroundScalingStyle style) {
+                if (style == null) {
+                    throw new Error("invalid background scaling style");
+                }
+                mBackgroundScalingStyle = style;
+                return this;
+            }
+
+            public Builder setDebugMode(boolean m) {
+                mDebugMode = m;
+                return this;
+            }
+
+            public Builder setDemoMode(boolean m) {
+                mDemoMode = m;
+                return this;
+            }
+
+            public Builder setFreezeWhileScrolling(boolean m) {
+                mFreezeWhileScrolling = m;
+                return this;
+            }
+
+            public Builder setPredictiveDrag(boolean m) {
+                mPredictiveDrag = m;
+                return this;
+            }
+
+            public Builder setAdaptiveQuality(boolean m) {
+                mAdaptiveQuality = m;
+                return this;
+            }
+
+            /**
+             * @param index the section shown first, -1 for the first one
+             */
+            public Builder setInitialSection(int index) {
+                mInitialSection = index;
+                return this;
+            }
+
+            public Config build() {
+                return new Config(this);
+            }
+        }
+    }
+
+    /**
+     * The viewport position of a panorama, relative to its current section so that it
+     * survives a different screen size.
+     * @author jiaoye
+     *
+     */
+    static class SavedState extends BaseSavedState {
+
+        int sectionIndex = SectionGeometry.NO_SECTION;
+        int sectionOffset;
+        // how many times the viewport is wrapped beyond the content strip, e.g. -1 in the middle
+        // of dragging from the first section to the last one
+        int wrapCount;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel in) {
+            super(in);
+            sectionIndex = in.readInt();
+            sectionOffset = in.readInt();
+            wrapCount = in.readInt();
+        }
+
+        @Override
+        public void writeToParcel(Parcel out, int flags) {
+            super.writeToParcel(out, flags);
+            out.writeInt(sectionIndex);
+            out.writeInt(sectionOffset);
+            out.writeInt(wrapCount);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR = new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel in) {
+                return new SavedState(in);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+
     /**
      * This class provides width suggestion for panorama section.
      * @author jiaoye
@@ -1293,14 +3260,19 @@ public class PanoramaView extends ViewGroup {
     }
 
     private class Scroller extends android.widget.Scroller {
+        private final Interpolator mInterpolator;
+
         public Scroller() {
-            super(getContext(), new Interpolator() {
-                final private double scale = 1 - 1/Math.E;
-                @Override
-                public float getInterpolation(float input) {
-                    return (float) ((1-Math.exp(-input)) / scale);
-                }
-            });
+            this(Easing.exponential());
+        }
+
+        public Scroller(Interpolator interpolator) {
+            super(getContext(), interpolator);
+            mInterpolator = interpolator;
+        }
+
+        public Interpolator getInterpolator() {
+            return mInterpolator;
         }
 
         public boolean computeScrollOffset() {
@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+/**
+ * <p>
+ * Watches frame intervals while a {@link PanoramaView} scrolls and proposes a quality level.
+ * The level goes down by one whenever too many frames of a window miss the frame budget, and
+ * goes back up by one after several windows in a row hit it.
+ * </p>
+ * <p>
+ * NOTE: Levels are plain numbers from 0 (full quality) to the maximum level given to the
+ * constructor, the meaning of each level is up to the caller.
+ * </p>
+ * @author jiaoye
+ *
+ */
+class QualityGovernor {
+
+    private static final int WINDOW_SIZE = 30; // frames
+    private static final float SLOW_FRAME_FACTOR = 1.5f; // of the frame interval
+    private static final int DOWNGRADE_THRESHOLD = 6; // slow frames in a window
+    private static final int UPGRADE_THRESHOLD = 1; // slow frames in a window
+    private static final int UPGRADE_WINDOWS = 3;
+
+    private final long mSlowFrameNanos;
+    private final int mMaxLevel;
+    private int mLevel;
+    private long mLastFrameTime = -1;
+    private int mFrameCount;
+    private int mSlowFrameCount;
+    private int mGoodWindowCount;
+
+    /**
+     * @param frameInterval the expected frame interval in milliseconds
+     * @param maxLevel the lowest quality level
+     */
+    QualityGovernor(float frameInterval, int maxLevel) {
+        mSlowFrameNanos = (long) (frameInterval * SLOW_FRAME_FACTOR * 1000000);
+        mMaxLevel = maxLevel;
+    }
+
+    /**
+     * Record a frame drawn while scrolling.
+     * @param frameTime System.nanoTime() of the frame
+     * @param backToBack whether the frame was requested right after the previous one, the
+     *        interval after a pause, e.g. a finger held still, is not a frame interval
+     */
+    void onFrame(long frameTime, boolean backToBack) {
+        if (mLastFrameTime < 0 || !backToBack) {
+            mLastFrameTime = frameTime;
+            return;
+        }
+        if (frameTime - mLastFrameTime > mSlowFrameNanos) {
+            mSlowFrameCount++;
+        }
+        mLastFrameTime = frameTime;
+        if (++mFrameCount < WINDOW_SIZE) {
+            return;
+        }
+
+        if (mSlowFrameCount >= DOWNGRADE_THRESHOLD) {
+            if (mLevel < mMaxLevel) {
+                mLevel++;
+            }
+            mGoodWindowCount = 0;
+        }
+        else if (mSlowFrameCount <= UPGRADE_THRESHOLD) {
+            if (++mGoodWindowCount >= UPGRADE_WINDOWS) {
+                if (mLevel > 0) {
+                    mLevel--;
+                }
+                mGoodWindowCount = 0;
+            }
+        }
+        mFrameCount = 0;
+        mSlowFrameCount = 0;
+    }
+
+    /**
+     * The interval between the last frame of a movement and the first frame of the next one,
+     * e.g. a drag turning into a fling, is not a frame interval, so forget about the last frame.
+     */
+    void forgetLastFrame() {
+        mLastFrameTime = -1;
+    }
+
+    int getLevel() {
+        return mLevel;
+    }
+
+    void reset() {
+        mLevel = 0;
+        mLastFrameTime = -1;
+        mFrameCount = 0;
+        mSlowFrameCount = 0;
+        mGoodWindowCount = 0;
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.lang.reflect.Method;
+
+import android.os.Build;
+import android.util.Log;
+import android.view.View;
+
+/**
+ * <p>
+ * Rendering state of views introduced after API level 10, e.g. hardware acceleration and
+ * view alpha. On older platforms every view is drawn in software, views are opaque and their
+ * dirty state is unknown.
+ * </p>
+ * <p>
+ * NOTE: The methods are called through reflection, looked up once per process. Only
+ * {@link #isDirty} is cheap enough for every frame, the others box their result and are meant
+ * for occasional calls, e.g. once per attach.
+ * </p>
+ * @author jiaoye
+ *
+ */
+final class RenderCompat {
+
+    private static final String LOG_TAG = RenderCompat.class.toString();
+
+    // shared by every call, invoke() would allocate an empty array otherwise
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private static Method sIsHardwareAccelerated;
+    private static Method sGetAlpha;
+    private static Method sIsDirty;
+
+    static {
+        if (Build.VERSION.SDK_INT >= 11) {
+            try {
+                sIsHardwareAccelerated = View.class.getMethod("isHardwareAccelerated");
+                sGetAlpha = View.class.getMethod("getAlpha");
+                sIsDirty = View.class.getMethod("isDirty");
+            }
+            catch (NoSuchMethodException e) {
+                Log.w(LOG_TAG, "rendering state of API level 11 is not available", e);
+            }
+        }
+    }
+
+    private RenderCompat() {
+    }
+
+    /**
+     * @return whether the view is drawn through display lists, only valid while it's attached
+     */
+    static boolean isHardwareAccelerated(View view) {
+        if (sIsHardwareAccelerated == null) {
+            return false;
+        }
+        try {
+            return (Boolean) sIsHardwareAccelerated.invoke(view, NO_ARGS);
+        }
+        catch (Exception e) {
+            Log.w(LOG_TAG, "failed to tell whether the view is hardware accelerated", e);
+            sIsHardwareAccelerated = null;
+            return false;
+        }
+    }
+
+    /**
+     * @return the alpha property of the view, which is not applied by its own draw()
+     */
+    static float getAlpha(View view) {
+        if (sGetAlpha == null) {
+            return 1.0f;
+        }
+        try {
+            return (Float) sGetAlpha.invoke(view, NO_ARGS);
+        }
+        catch (Exception e) {
+            Log.w(LOG_TAG, "failed to get the alpha of a view", e);
+            sGetAlpha = null;
+            return 1.0f;
+        }
+    }
+
+    /**
+     * @return whether the view or one of its descendants invalidated since the view was last
+     *         drawn, or false if it can't be told, see {@link #canTellDirty()}
+     */
+    static boolean isDirty(View view) {
+        if (sIsDirty == null) {
+            return false;
+        }
+        try {
+            return (Boolean) sIsDirty.invoke(view, NO_ARGS);
+        }
+        catch (Exception e) {
+            Log.w(LOG_TAG, "failed to tell whether a view is dirty", e);
+            sIsDirty = null;
+            return false;
+        }
+    }
+
+    static boolean canTellDirty() {
+        return sIsDirty != null;
+    }
+}
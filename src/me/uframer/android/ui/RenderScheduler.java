@@ -0,0 +1,182 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import android.os.SystemClock;
+import android.view.View;
+
+/**
+ * <p>
+ * Decides when a {@link PanoramaView} draws. Motion frames are only granted while the
+ * panorama is dragged or settling, decorative frames (e.g. the touch circle of demo mode)
+ * are capped to a maximum frame rate, and content frames are drawn whenever something really
+ * changed. A panorama at rest therefore draws nothing until its contents change.
+ * </p>
+ * <p>
+ * NOTE: The frames drawn within the last second are counted separately at rest and in motion,
+ * without allocating, so the counters may stay on in production.
+ * </p>
+ * @author jiaoye
+ *
+ */
+class RenderScheduler {
+
+    static final int DEFAULT_MAX_DECORATIVE_FRAME_RATE = 15;
+    private static final long COUNTER_WINDOW = 1000; // in milliseconds
+    private static final int COUNTER_CAPACITY = 128; // frames per window counted at most
+
+    private final View mView;
+    private final float mFrameInterval; // in milliseconds
+    private final Runnable mDecorativeFrame;
+    private boolean mIsInMotion;
+    private long mLastFrameTime = -1;
+    private long mMotionRequestTime = -1; // the first one since the last frame
+    private boolean mIsBackToBack;
+    private boolean mIsDecorativeFramePending;
+    private long mLastDecorativeFrameTime = -1;
+    private long mDecorativeFrameInterval;
+
+    // ring buffers of the times of recent frames
+    private final long[] mRestFrameTimes = new long[COUNTER_CAPACITY];
+    private final long[] mMotionFrameTimes = new long[COUNTER_CAPACITY];
+    private int mRestFrameHead;
+    private int mMotionFrameHead;
+
+    /**
+     * @param frameInterval the expected frame interval in milliseconds
+     */
+    RenderScheduler(View view, float frameInterval) {
+        mView = view;
+        mFrameInterval = frameInterval;
+        mDecorativeFrame = new Runnable() {
+            @Override
+            public void run() {
+                mIsDecorativeFramePending = false;
+                mLastDecorativeFrameTime = SystemClock.uptimeMillis();
+                mView.invalidate();
+            }
+        };
+        setMaxDecorativeFrameRate(DEFAULT_MAX_DECORATIVE_FRAME_RATE);
+        for (int i = 0; i < COUNTER_CAPACITY; ++i) {
+            mRestFrameTimes[i] = Long.MIN_VALUE;
+            mMotionFrameTimes[i] = Long.MIN_VALUE;
+        }
+    }
+
+    void setInMotion(boolean inMotion) {
+        mIsInMotion = inMotion;
+    }
+
+    boolean isInMotion() {
+        return mIsInMotion;
+    }
+
+    void setMaxDecorativeFrameRate(int fps) {
+        if (fps <= 0) {
+            throw new Error("frame rate must be positive");
+        }
+        mDecorativeFrameInterval = 1000 / fps;
+    }
+
+    /**
+     * Draw the next frame because the contents changed.
+     */
+    void requestFrame() {
+        mView.invalidate();
+    }
+
+    /**
+     * Draw the next frame of a movement, ignored at rest.
+     * @return whether a frame is requested
+     */
+    boolean requestMotionFrame() {
+        if (!mIsInMotion) {
+            return false;
+        }
+        if (mMotionRequestTime < 0) {
+            mMotionRequestTime = SystemClock.uptimeMillis();
+        }
+        mView.invalidate();
+        return true;
+    }
+
+    /**
+     * Draw a frame for a purely decorative change, no sooner than the maximum decorative frame
+     * rate allows.
+     */
+    void requestDecorativeFrame() {
+        if (mIsDecorativeFramePending) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        final long wait = mLastDecorativeFrameTime + mDecorativeFrameInterval - now;
+        if (mLastDecorativeFrameTime < 0 || wait <= 0) {
+            mLastDecorativeFrameTime = now;
+            mView.invalidate();
+        }
+        else {
+            mIsDecorativeFramePending = true;
+            mView.postDelayed(mDecorativeFrame, wait);
+        }
+    }
+
+    void cancel() {
+        if (mIsDecorativeFramePending) {
+            mIsDecorativeFramePending = false;
+            mView.removeCallbacks(mDecorativeFrame);
+        }
+    }
+
+    /**
+     * Count a frame, called by the panorama for every frame it draws.
+     */
+    void onFrameDrawn() {
+        final long now = SystemClock.uptimeMillis();
+        mIsBackToBack = mLastFrameTime >= 0 && mMotionRequestTime >= 0
+                        && mMotionRequestTime - mLastFrameTime <= mFrameInterval;
+        mMotionRequestTime = -1;
+        mLastFrameTime = now;
+        if (mIsInMotion) {
+            mMotionFrameTimes[mMotionFrameHead] = now;
+            mMotionFrameHead = (mMotionFrameHead + 1) % COUNTER_CAPACITY;
+        }
+        else {
+            mRestFrameTimes[mRestFrameHead] = now;
+            mRestFrameHead = (mRestFrameHead + 1) % COUNTER_CAPACITY;
+        }
+    }
+
+    /**
+     * @return whether the frame being drawn is a motion frame requested within one frame
+     *         interval of the previous frame, as opposed to one after a pause
+     */
+    boolean isBackToBackMotionFrame() {
+        return mIsBackToBack;
+    }
+
+    /**
+     * @return the frames drawn at rest within the last second
+     */
+    int getFrameRateAtRest() {
+        return countRecentFrames(mRestFrameTimes);
+    }
+
+    /**
+     * @return the frames drawn in motion within the last second
+     */
+    int getFrameRateInMotion() {
+        return countRecentFrames(mMotionFrameTimes);
+    }
+
+    private static int countRecentFrames(long[] times) {
+        final long since = SystemClock.uptimeMillis() - COUNTER_WINDOW;
+        int count = 0;
+        for (int i = 0; i < COUNTER_CAPACITY; ++i) {
+            if (times[i] > since) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
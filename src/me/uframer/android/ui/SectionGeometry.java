@@ -0,0 +1,186 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+/**
+ * <p>
+ * Offsets of the sections of a {@link PanoramaView} along the unwrapped content strip, i.e.
+ * the left edge of each section minus its left margin when nothing wraps. Sections with
+ * View.GONE visibility take no space.
+ * </p>
+ * <p>
+ * NOTE: The geometry is updated incrementally, the owner reports every section it measures
+ * and every structural change, and only sections from the first changed one onward are summed
+ * up again by {@link #update}.
+ * </p>
+ * @author jiaoye
+ *
+ */
+class SectionGeometry {
+
+    static final int NO_SECTION = -1;
+
+    private static final int CLEAN = Integer.MAX_VALUE;
+
+    private final int mMargin;
+    private int[] mOffsets = new int[0];
+    private int[] mWidths = new int[0];
+    private boolean[] mGone = new boolean[0];
+    // prefix sums: valid sections in [0, i] and the last valid one among them
+    private int[] mValidCounts = new int[0];
+    private int[] mLastValidIndices = new int[0];
+    private int mSectionCount;
+    private int mContentWidth;
+    private int mValidSectionCount;
+    private int mFirstValidIndex = NO_SECTION;
+    private int mLastValidIndex = NO_SECTION;
+    // the first section whose offset is out of date, CLEAN if none
+    private int mDirtyIndex = CLEAN;
+
+    /**
+     * @param margin the left margin of every section
+     */
+    SectionGeometry(int margin) {
+        mMargin = margin;
+    }
+
+    /**
+     * Mark the sections from index onward as changed, e.g. after inserting or removing one.
+     */
+    void invalidateFrom(int index) {
+        if (index < mDirtyIndex) {
+            mDirtyIndex = index < 0 ? 0 : index;
+        }
+    }
+
+    void setSectionCount(int count) {
+        if (count == mSectionCount) {
+            return;
+        }
+        if (mOffsets.length < count) {
+            final int capacity = Math.max(count, mOffsets.length * 2);
+            mOffsets = grow(mOffsets, capacity);
+            mWidths = grow(mWidths, capacity);
+            mValidCounts = grow(mValidCounts, capacity);
+            mLastValidIndices = grow(mLastValidIndices, capacity);
+            final boolean[] gone = new boolean[capacity];
+            System.arraycopy(mGone, 0, gone, 0, mSectionCount);
+            mGone = gone;
+        }
+        invalidateFrom(Math.min(count, mSectionCount));
+        mSectionCount = count;
+    }
+
+    private int[] grow(int[] array, int capacity) {
+        final int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, mSectionCount);
+        return grown;
+    }
+
+    /**
+     * Record the measured width and the visibility of a section, a change marks it dirty.
+     */
+    void setSection(int index, boolean gone, int width) {
+        if (mGone[index] != gone || (!gone && mWidths[index] != width)) {
+            mGone[index] = gone;
+            mWidths[index] = width;
+            invalidateFrom(index);
+        }
+    }
+
+    /**
+     * Sum up the offsets again from the first changed section onward, sections before it are
+     * not visited.
+     */
+    void update() {
+        if (mDirtyIndex == CLEAN) {
+            return;
+        }
+        final int count = mSectionCount;
+        final int start = Math.min(mDirtyIndex, count);
+
+        // 1. pick up the prefix before the first changed section
+        int offset = 0;
+        int validCount = 0;
+        int lastValidIndex = NO_SECTION;
+        if (start > 0) {
+            final int previous = start - 1;
+            offset = mOffsets[previous] + (mGone[previous] ? 0 : mWidths[previous] + mMargin);
+            validCount = mValidCounts[previous];
+            lastValidIndex = mLastValidIndices[previous];
+        }
+        if (validCount == 0) {
+            mFirstValidIndex = NO_SECTION;
+        }
+
+        // 2. sum up again from there
+        for (int i = start; i < count; ++i) {
+            mOffsets[i] = offset;
+            if (!mGone[i]) {
+                offset += mWidths[i] + mMargin;
+                if (validCount == 0) {
+                    mFirstValidIndex = i;
+                }
+                validCount++;
+                lastValidIndex = i;
+            }
+            mValidCounts[i] = validCount;
+            mLastValidIndices[i] = lastValidIndex;
+        }
+        mContentWidth = offset;
+        mValidSectionCount = validCount;
+        mLastValidIndex = lastValidIndex;
+        mDirtyIndex = CLEAN;
+    }
+
+    int getContentWidth() {
+        return mContentWidth;
+    }
+
+    int getValidSectionCount() {
+        return mValidSectionCount;
+    }
+
+    int getFirstValidIndex() {
+        return mFirstValidIndex;
+    }
+
+    int getLastValidIndex() {
+        return mLastValidIndex;
+    }
+
+    /**
+     * @return the offset of a section along the content strip, meaningless for GONE sections
+     */
+    int getOffset(int index) {
+        return mOffsets[index];
+    }
+
+    /**
+     * Binary search for the section covering the given offset of the content strip, offsets
+     * beyond either end wrap around.
+     * @return the index of the section or NO_SECTION if there is none
+     */
+    int findSectionAt(int offset) {
+        if (mValidSectionCount == 0 || mContentWidth <= 0) {
+            return NO_SECTION;
+        }
+        final int wrappedOffset = ((offset % mContentWidth) + mContentWidth) % mContentWidth;
+        int low = 0;
+        int high = mSectionCount - 1;
+        int found = NO_SECTION;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            if (mOffsets[mid] <= wrappedOffset) {
+                found = mid;
+                low = mid + 1;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        // GONE sections share the offset of the next valid section, which has a larger index
+        return found;
+    }
+}
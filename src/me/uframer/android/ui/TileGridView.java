@@ -0,0 +1,425 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.util.ArrayList;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.database.DataSetObserver;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.util.SparseArray;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewParent;
+import android.widget.Adapter;
+
+/**
+ * <p>
+ * A grid of equally sized tiles, filled column by column, to be used as the content of a
+ * {@link PanoramaSection}. Only the tiles intersecting the panorama viewport are bound to
+ * views, tiles scrolling out are recycled by view type, so the number of tiles doesn't affect
+ * the cost of a frame.
+ * </p>
+ * <p>
+ * NOTE: The grid is measured from the cell size alone, tiles are always measured exactly to
+ * the cell size. When the grid is not inside a PanoramaSection every tile is bound, inside one
+ * no tile is bound until the panorama tells the viewport range.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public class TileGridView extends ViewGroup {
+
+    private static final int DEFAULT_CELL_SIZE = 173;
+    private static final int DEFAULT_CELL_SPACING = 12;
+
+    private Adapter mAdapter;
+    private final DataSetObserver mObserver = new DataSetObserver() {
+        @Override
+        public void onChanged() {
+            recycleAllTiles();
+            requestLayout();
+        }
+
+        @Override
+        public void onInvalidated() {
+            recycleAllTiles();
+            requestLayout();
+        }
+    };
+
+    private int mCellWidth;
+    private int mCellHeight;
+    private int mCellSpacing;
+    private int mRequestedRowCount;
+    private int mRowCount;
+    private int mColumnCount;
+
+    // visible area in the coordinates of this view, unbounded unless inside a PanoramaSection
+    private int mVisibleLeft = Integer.MIN_VALUE;
+    private int mVisibleTop = Integer.MIN_VALUE;
+    private int mVisibleRight = Integer.MAX_VALUE;
+    private int mVisibleBottom = Integer.MAX_VALUE;
+    // visible area to restore after rendering every tile, see beginFullRendering()
+    private final Rect mSavedVisibleArea = new Rect();
+
+    // bound tiles by adapter position, recycled tiles by view type
+    private final SparseArray<View> mActiveTiles = new SparseArray<View>();
+    private final SparseArray<ArrayList<View>> mScrapTiles = new SparseArray<ArrayList<View>>();
+    private final ArrayList<View> mLeavingTiles = new ArrayList<View>();
+
+    public TileGridView(Context context) {
+        super(context);
+        initializeTileGridView(context, null, 0);
+    }
+
+    public TileGridView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        initializeTileGridView(context, attrs, 0);
+    }
+
+    public TileGridView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        initializeTileGridView(context, attrs, defStyle);
+    }
+
+    /**
+     * initialize TileGridView internally
+     */
+    private void initializeTileGridView(Context context, AttributeSet attrs, int defStyle) {
+        mCellWidth = DEFAULT_CELL_SIZE;
+        mCellHeight = DEFAULT_CELL_SIZE;
+        mCellSpacing = DEFAULT_CELL_SPACING;
+        if (attrs != null) {
+            TypedArray ta = context.obtainStyledAttributes(attrs, R.styleable.TileGridView, defStyle, 0);
+            mCellWidth = ta.getDimensionPixelSize(R.styleable.TileGridView_cellWidth, DEFAULT_CELL_SIZE);
+            mCellHeight = ta.getDimensionPixelSize(R.styleable.TileGridView_cellHeight, DEFAULT_CELL_SIZE);
+            mCellSpacing = ta.getDimensionPixelSize(R.styleable.TileGridView_cellSpacing, DEFAULT_CELL_SPACING);
+            mRequestedRowCount = ta.getInt(R.styleable.TileGridView_rowCount, 0);
+            ta.recycle();
+        }
+        if (mCellWidth <= 0 || mCellHeight <= 0) {
+            throw new Error("cell size can only be positive");
+        }
+    }
+
+    public void setAdapter(Adapter adapter) {
+        if (mAdapter != null) {
+            mAdapter.unregisterDataSetObserver(mObserver);
+        }
+        recycleAllTiles();
+        clearScrapTiles();
+        mAdapter = adapter;
+        if (mAdapter != null) {
+            mAdapter.registerDataSetObserver(mObserver);
+        }
+        requestLayout();
+    }
+
+    public Adapter getAdapter() {
+        return mAdapter;
+    }
+
+    public void setCellSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new Error("cell size can only be positive");
+        }
+        mCellWidth = width;
+        mCellHeight = height;
+        recycleAllTiles();
+        requestLayout();
+    }
+
+    public void setCellSpacing(int spacing) {
+        mCellSpacing = spacing;
+        requestLayout();
+    }
+
+    /**
+     * @param rowCount the number of rows, 0 fits as many rows as the height allows
+     */
+    public void setRowCount(int rowCount) {
+        mRequestedRowCount = rowCount;
+        requestLayout();
+    }
+
+    /*
+     * Called by PanoramaSection whenever the panorama viewport moves over the section. The
+     * area is in the coordinates of this view.
+     */
+    void setVisibleArea(int left, int top, int right, int bottom) {
+        if (left == mVisibleLeft && top == mVisibleTop && right == mVisibleRight && bottom == mVisibleBottom) {
+            return;
+        }
+        final int firstColumn = getFirstVisibleColumn();
+        final int lastColumn = getLastVisibleColumn();
+        final int firstRow = getFirstVisibleRow();
+        final int lastRow = getLastVisibleRow();
+        mVisibleLeft = left;
+        mVisibleTop = top;
+        mVisibleRight = right;
+        mVisibleBottom = bottom;
+        // most moves stay within the same cells
+        if (firstColumn != getFirstVisibleColumn() || lastColumn != getLastVisibleColumn()
+                || firstRow != getFirstVisibleRow() || lastRow != getLastVisibleRow()) {
+            fillVisibleTiles();
+        }
+    }
+
+    /*
+     * Bind every tile, e.g. to take a snapshot of the whole section while only part of it, or
+     * none of it, is visible. Must be followed by endFullRendering().
+     */
+    void beginFullRendering() {
+        mSavedVisibleArea.set(mVisibleLeft, mVisibleTop, mVisibleRight, mVisibleBottom);
+        setVisibleArea(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /*
+     * Go back to the visible area before beginFullRendering(), tiles out of sight are recycled.
+     */
+    void endFullRendering() {
+        setVisibleArea(mSavedVisibleArea.left, mSavedVisibleArea.top, mSavedVisibleArea.right, mSavedVisibleArea.bottom);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int count = mAdapter == null ? 0 : mAdapter.getCount();
+        final int heightMode = MeasureSpec.getMode(heightMeasureSpec);
+        final int heightSize = MeasureSpec.getSize(heightMeasureSpec);
+        final int verticalPadding = getPaddingTop() + getPaddingBottom();
+        final int rowPitch = mCellHeight + mCellSpacing;
+
+        // 1. rows from the height unless given
+        final int rowCount = mRowCount;
+        if (mRequestedRowCount > 0) {
+            mRowCount = mRequestedRowCount;
+        }
+        else if (heightMode == MeasureSpec.UNSPECIFIED) {
+            mRowCount = Math.max(1, count);
+        }
+        else {
+            mRowCount = Math.max(1, (heightSize - verticalPadding + mCellSpacing) / rowPitch);
+        }
+
+        if (mRowCount != rowCount) {
+            // cells move to other columns
+            recycleAllTiles();
+        }
+
+        // 2. columns from the tile count
+        mColumnCount = (count + mRowCount - 1) / mRowCount;
+        final int usedRows = Math.min(mRowCount, count);
+
+        final int width = getPaddingLeft() + getPaddingRight()
+                          + (mColumnCount > 0 ? mColumnCount * (mCellWidth + mCellSpacing) - mCellSpacing : 0);
+        final int height = verticalPadding + (usedRows > 0 ? usedRows * rowPitch - mCellSpacing : 0);
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec), resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        fillVisibleTiles();
+    }
+
+    /*
+     * Recycle the tiles that left the visible area and bind the ones that entered it.
+     */
+    private void fillVisibleTiles() {
+        if (mRowCount == 0) {
+            return; // not measured yet
+        }
+        final int count = mAdapter == null ? 0 : mAdapter.getCount();
+        final int firstColumn = getFirstVisibleColumn();
+        final int lastColumn = Math.min(getLastVisibleColumn(), mColumnCount - 1);
+        final int firstRow = getFirstVisibleRow();
+        final int lastRow = Math.min(getLastVisibleRow(), mRowCount - 1);
+
+        // 1. recycle tiles out of sight
+        for (int i = mActiveTiles.size() - 1; i >= 0; --i) {
+            final int position = mActiveTiles.keyAt(i);
+            final int column = position / mRowCount;
+            final int row = position % mRowCount;
+            if (position >= count || column < firstColumn || column > lastColumn || row < firstRow || row > lastRow) {
+                final View tile = mActiveTiles.valueAt(i);
+                mActiveTiles.removeAt(i);
+                detachViewFromParent(tile);
+                addScrapTile(position < count ? mAdapter.getItemViewType(position) : Adapter.IGNORE_ITEM_VIEW_TYPE, tile);
+            }
+        }
+
+        // 2. bind tiles coming into sight
+        for (int column = firstColumn; column <= lastColumn; ++column) {
+            for (int row = firstRow; row <= lastRow; ++row) {
+                final int position = column * mRowCount + row;
+                if (position >= count) {
+                    break;
+                }
+                if (mActiveTiles.get(position) == null) {
+                    bindTile(position, column, row);
+                }
+            }
+        }
+
+        // 3. bound tiles asking for a layout of their own, e.g. after their content changed
+        for (int i = 0; i < mActiveTiles.size(); ++i) {
+            final View tile = mActiveTiles.valueAt(i);
+            if (tile.isLayoutRequested()) {
+                final int position = mActiveTiles.keyAt(i);
+                layoutTile(tile, position / mRowCount, position % mRowCount);
+            }
+        }
+
+        // 4. tiles recycled for good leave the view hierarchy
+        for (int i = 0; i < mLeavingTiles.size(); ++i) {
+            removeDetachedView(mLeavingTiles.get(i), false);
+        }
+        mLeavingTiles.clear();
+    }
+
+    private void bindTile(int position, int column, int row) {
+        final int type = mAdapter.getItemViewType(position);
+        final View scrap = takeScrapTile(type);
+        final View tile = mAdapter.getView(position, scrap, this);
+        if (tile == scrap && scrap != null) {
+            attachViewToParent(tile, getChildCount(), tile.getLayoutParams());
+        }
+        else {
+            if (scrap != null) {
+                mLeavingTiles.add(scrap);
+            }
+            LayoutParams lp = tile.getLayoutParams();
+            if (lp == null) {
+                lp = generateDefaultLayoutParams();
+            }
+            addViewInLayout(tile, getChildCount(), lp, true);
+        }
+        layoutTile(tile, column, row);
+        mActiveTiles.put(position, tile);
+    }
+
+    private void layoutTile(View tile, int column, int row) {
+        tile.measure(MeasureSpec.makeMeasureSpec(mCellWidth, MeasureSpec.EXACTLY),
+                     MeasureSpec.makeMeasureSpec(mCellHeight, MeasureSpec.EXACTLY));
+        final int left = getPaddingLeft() + column * (mCellWidth + mCellSpacing);
+        final int top = getPaddingTop() + row * (mCellHeight + mCellSpacing);
+        tile.layout(left, top, left + mCellWidth, top + mCellHeight);
+    }
+
+    private void addScrapTile(int type, View tile) {
+        final ImageLoader loader = ImageLoader.peekInstance();
+        if (loader != null) {
+            loader.cancelWithin(tile);
+        }
+        final PanoramaView panorama = findPanorama();
+        if (panorama != null) {
+            panorama.onTileRecycled(tile);
+        }
+        if (type == Adapter.IGNORE_ITEM_VIEW_TYPE) {
+            mLeavingTiles.add(tile);
+            return;
+        }
+        ArrayList<View> scrap = mScrapTiles.get(type);
+        if (scrap == null) {
+            scrap = new ArrayList<View>();
+            mScrapTiles.put(type, scrap);
+        }
+        scrap.add(tile);
+    }
+
+    private PanoramaView findPanorama() {
+        ViewParent parent = getParent();
+        while (parent != null && !(parent instanceof PanoramaView)) {
+            parent = parent.getParent();
+        }
+        return (PanoramaView) parent;
+    }
+
+    private View takeScrapTile(int type) {
+        if (type == Adapter.IGNORE_ITEM_VIEW_TYPE) {
+            return null;
+        }
+        final ArrayList<View> scrap = mScrapTiles.get(type);
+        return scrap == null || scrap.isEmpty() ? null : scrap.remove(scrap.size() - 1);
+    }
+
+    /*
+     * Move every bound tile to the scrap heap, they are bound again by the next layout.
+     */
+    private void recycleAllTiles() {
+        for (int i = mActiveTiles.size() - 1; i >= 0; --i) {
+            final View tile = mActiveTiles.valueAt(i);
+            detachViewFromParent(tile);
+            final int position = mActiveTiles.keyAt(i);
+            addScrapTile(mAdapter != null && position < mAdapter.getCount()
+                         ? mAdapter.getItemViewType(position) : Adapter.IGNORE_ITEM_VIEW_TYPE, tile);
+        }
+        mActiveTiles.clear();
+    }
+
+    private void clearScrapTiles() {
+        for (int i = 0; i < mScrapTiles.size(); ++i) {
+            mLeavingTiles.addAll(mScrapTiles.valueAt(i));
+        }
+        mScrapTiles.clear();
+        for (int i = 0; i < mLeavingTiles.size(); ++i) {
+            removeDetachedView(mLeavingTiles.get(i), false);
+        }
+        mLeavingTiles.clear();
+    }
+
+    /*
+     * Fixed-cell math: the column or row covering a coordinate, an unbounded coordinate
+     * covers everything.
+     */
+    private static int cellAt(int coordinate, int padding, int pitch) {
+        if (coordinate == Integer.MIN_VALUE) {
+            return 0;
+        }
+        if (coordinate >= Integer.MAX_VALUE - 1) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(0, (coordinate - padding) / pitch);
+    }
+
+    private int getFirstVisibleColumn() {
+        return cellAt(mVisibleLeft, getPaddingLeft(), mCellWidth + mCellSpacing);
+    }
+
+    private int getLastVisibleColumn() {
+        if (mVisibleRight <= Math.max(mVisibleLeft, 0)) {
+            return -1;
+        }
+        return cellAt(mVisibleRight - 1, getPaddingLeft(), mCellWidth + mCellSpacing);
+    }
+
+    private int getFirstVisibleRow() {
+        return cellAt(mVisibleTop, getPaddingTop(), mCellHeight + mCellSpacing);
+    }
+
+    private int getLastVisibleRow() {
+        if (mVisibleBottom <= Math.max(mVisibleTop, 0)) {
+            return -1;
+        }
+        return cellAt(mVisibleBottom - 1, getPaddingTop(), mCellHeight + mCellSpacing);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (getParent() instanceof PanoramaSection
+                && mVisibleLeft == Integer.MIN_VALUE && mVisibleRight == Integer.MAX_VALUE) {
+            // the first layout comes before the viewport range, bind nothing until then
+            setVisibleArea(0, 0, 0, 0);
+        }
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        clearScrapTiles();
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+
+/**
+ * <p>
+ * A process wide atlas of rasterized title runs, keyed by the typeface weight, the text size
+ * and the string. Large titles are rasterized once into alpha masks and drawn as bitmap blits
+ * by every {@link TitleView} showing the same title, in any color.
+ * </p>
+ * <p>
+ * NOTE: The atlas is bounded in bytes and evicts the least recently used runs, it's accounted
+ * by {@link MemoryBudget} as well. An evicted run is not recycled since views and display
+ * lists may still draw it, it's collected once no holder is left. Only use it on the UI thread.
+ * </p>
+ * @author jiaoye
+ *
+ */
+final class TitleAtlas {
+
+    private static final long DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+    private static TitleAtlas mInstance = null;
+
+    private final UIContext mUIContext;
+    private final BitmapLruCache<String> mRuns;
+    private final Paint mPaint = new Paint();
+    private final Paint.FontMetricsInt mFontMetrics = new Paint.FontMetricsInt();
+    private final Canvas mCanvas = new Canvas();
+    private final StringBuilder mKeyBuilder = new StringBuilder();
+
+    private TitleAtlas(Context context) {
+        mUIContext = UIContext.getUIContext(context);
+        mRuns = new BitmapLruCache<String>("title atlas", DEFAULT_MAX_SIZE, false);
+        mPaint.setAntiAlias(true);
+        mPaint.setSubpixelText(true);
+        MemoryBudget.getInstance().register(context.getApplicationContext(), mRuns);
+    }
+
+    static TitleAtlas getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new TitleAtlas(context);
+        }
+
+        return mInstance;
+    }
+
+    void setMaxSize(long bytes) {
+        mRuns.setMaxSize(bytes);
+    }
+
+    /**
+     * @param textSize the text size in pixels
+     * @return the alpha mask of the text from the top to the bottom of the font, or null if
+     *         the text is empty or can't be allocated
+     */
+    Bitmap get(UIContext.Weight weight, float textSize, String text) {
+        if (text == null || text.length() == 0) {
+            return null;
+        }
+        mKeyBuilder.setLength(0);
+        mKeyBuilder.append(weight.ordinal()).append('/').append(textSize).append('/').append(text);
+        final String key = mKeyBuilder.toString();
+        Bitmap run = mRuns.get(key);
+        if (run == null) {
+            run = rasterize(weight, textSize, text);
+            if (run != null) {
+                mRuns.put(key, run);
+            }
+        }
+        return run;
+    }
+
+    /**
+     * Measure a run without rasterizing it.
+     */
+    int measureWidth(UIContext.Weight weight, float textSize, String text) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        setUpPaint(weight, textSize);
+        return (int) Math.ceil(mPaint.measureText(text));
+    }
+
+    int measureHeight(UIContext.Weight weight, float textSize) {
+        setUpPaint(weight, textSize);
+        return mFontMetrics.bottom - mFontMetrics.top;
+    }
+
+    private void setUpPaint(UIContext.Weight weight, float textSize) {
+        mPaint.setTypeface(mUIContext.getTypeface(weight));
+        mPaint.setTextSize(textSize);
+        mPaint.getFontMetricsInt(mFontMetrics);
+    }
+
+    private Bitmap rasterize(UIContext.Weight weight, float textSize, String text) {
+        TraceCompat.beginSection("TitleAtlas#rasterize");
+        try {
+            setUpPaint(weight, textSize);
+            final int width = (int) Math.ceil(mPaint.measureText(text));
+            final int height = mFontMetrics.bottom - mFontMetrics.top;
+            if (width <= 0 || height <= 0) {
+                return null;
+            }
+            final Bitmap run;
+            try {
+                run = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+            }
+            catch (OutOfMemoryError e) {
+                return null;
+            }
+            mCanvas.setBitmap(run);
+            mCanvas.drawText(text, 0, -mFontMetrics.top, mPaint);
+            return run;
+        }
+        finally {
+            TraceCompat.endSection();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.TypedValue;
+import android.view.View;
+
+/**
+ * <p>
+ * A single line of large title text drawn as a blit of its run in the shared
+ * {@link TitleAtlas}, so the same title shown by many headers is rasterized once. The
+ * generated headers of {@link PanoramaView} and {@link PanoramaSection} use it in place of
+ * a TextView.
+ * </p>
+ * <p>
+ * NOTE: The text is never ellipsized, like the horizontally scrolling TextView it replaces.
+ * Negative paddings crop the text the same way.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public class TitleView extends View {
+
+    private final TitleAtlas mAtlas;
+    private final UIContext.Weight mWeight;
+    private final float mTextSize; // in pixels
+    private final Paint mPaint = new Paint();
+    private String mText;
+    private Bitmap mRun;
+
+    /**
+     * @param textSize the text size in scaled pixels
+     */
+    public TitleView(Context context, UIContext.Weight weight, float textSize) {
+        super(context);
+        mAtlas = TitleAtlas.getInstance(context);
+        mWeight = weight;
+        mTextSize = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, textSize, getResources().getDisplayMetrics());
+    }
+
+    /**
+     * Set the maximum size in bytes of the atlas shared by all titles.
+     */
+    public static void setAtlasMaxSize(Context context, long bytes) {
+        TitleAtlas.getInstance(context).setMaxSize(bytes);
+    }
+
+    public void setText(String text) {
+        mText = text;
+        mRun = null;
+        requestLayout();
+        invalidate();
+    }
+
+    public String getText() {
+        return mText;
+    }
+
+    public void setTextColor(int color) {
+        mPaint.setColor(color);
+        invalidate();
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        final int width = mAtlas.measureWidth(mWeight, mTextSize, mText) + getPaddingLeft() + getPaddingRight();
+        final int height = mAtlas.measureHeight(mWeight, mTextSize) + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(resolveSize(Math.max(width, 0), widthMeasureSpec),
+                             resolveSize(Math.max(height, 0), heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mRun == null) {
+            mRun = mAtlas.get(mWeight, mTextSize, mText);
+        }
+        if (mRun != null) {
+            canvas.drawBitmap(mRun, getPaddingLeft(), getPaddingTop(), mPaint);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package me.uframer.android.ui;
+
+import java.lang.reflect.Method;
+
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * <p>
+ * Trace sections of the library shown in systrace and perfetto, e.g. "PanoramaView#layoutHeader".
+ * Tracing is off by default, and then a section costs a single static field read.
+ * </p>
+ * <p>
+ * NOTE: android.os.Trace is only available at API level 18 and above, so it is called through
+ * reflection and {@link #setEnabled} has no effect on older platforms. Don't switch tracing
+ * while a traversal is running, sections must stay balanced.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public final class TraceCompat {
+
+    private static final String LOG_TAG = TraceCompat.class.toString();
+
+    private static boolean sEnabled;
+    private static Method sBeginSection;
+    private static Method sEndSection;
+
+    private TraceCompat() {
+    }
+
+    /**
+     * Turn the trace sections of the library on or off.
+     */
+    public static void setEnabled(boolean enabled) {
+        if (enabled && sBeginSection == null) {
+            if (Build.VERSION.SDK_INT < 18) {
+                return;
+            }
+            try {
+                final Class<?> trace = Class.forName("android.os.Trace");
+                sBeginSection = trace.getMethod("beginSection", String.class);
+                sEndSection = trace.getMethod("endSection");
+            }
+            catch (Exception e) {
+                Log.w(LOG_TAG, "android.os.Trace is not available", e);
+                return;
+            }
+        }
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    static void beginSection(String name) {
+        if (sEnabled) {
+            invoke(sBeginSection, name);
+        }
+    }
+
+    static void endSection() {
+        if (sEnabled) {
+            invoke(sEndSection, null);
+        }
+    }
+
+    private static void invoke(Method method, String name) {
+        try {
+            if (name == null) {
+                method.invoke(null);
+            }
+            else {
+                method.invoke(null, name);
+            }
+        }
+        catch (Exception e) {
+            Log.w(LOG_TAG, "failed to trace, tracing is turned off", e);
+            sEnabled = false;
+        }
+    }
+}
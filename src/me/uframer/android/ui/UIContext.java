@@ -3,8 +3,14 @@
  */
 package me.uframer.android.ui;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
 import android.graphics.Typeface;
+import android.util.Log;
 
 /**
  * <p>
@@ -23,6 +29,21 @@ import android.graphics.Typeface;
  *
  */
 public class UIContext {
+
+    private static final String LOG_TAG = UIContext.class.toString();
+
+    /**
+     * Weights of the Segoe typefaces.
+     */
+    public static enum Weight {
+        BLACK,
+        BOLD,
+        SEMIBOLD,
+        NORMAL,
+        SEMILIGHT,
+        LIGHT,
+    }
+
     public final Typeface blackTypeface;
     public final Typeface boldTypeface;
     public final Typeface semiboldTypeface;
@@ -30,15 +51,90 @@ public class UIContext {
     public final Typeface semilightTypeface;
     public final Typeface lightTypeface;
 
+    // one per Weight, indexed by Weight.ordinal()
+    private static final String[] FONT_ASSETS = {
+        "fonts/SegoeWP-Black.ttf",
+        "fonts/SegoeWP-Bold.ttf",
+        "fonts/SegoeWP-Semibold.ttf",
+        "fonts/SegoeWP.ttf",
+        "fonts/SegoeWP-Semilight.ttf",
+        "fonts/SegoeWP-Light.ttf",
+    };
+
     private static UIContext mInstance = null;
 
+    private final Typeface[] mTypefaces = new Typeface[FONT_ASSETS.length];
+    private final long mTypefaceSize;
+
     private UIContext(Context context) {
-        blackTypeface = Typeface.createFromAsset(context.getAssets(), "fonts/SegoeWP-Black.ttf");
-        boldTypeface = Typeface.createFromAsset(context.getAssets(), "fonts/SegoeWP-Bold.ttf");
-        semiboldTypeface = Typeface.createFromAsset(context.getAssets(), "fonts/SegoeWP-Semibold.ttf");
-        normalTypeface = Typeface.createFromAsset(context.getAssets(), "fonts/SegoeWP.ttf");
-        semilightTypeface = Typeface.createFromAsset(context.getAssets(), "fonts/SegoeWP-Semilight.ttf");
-        lightTypeface = Typeface.createFromAsset(context.getAssets(), "fonts/SegoeWP-Light.ttf");
+        TraceCompat.beginSection("UIContext#loadFonts");
+        for (int i = 0; i < FONT_ASSETS.length; ++i) {
+            mTypefaces[i] = Typeface.createFromAsset(context.getAssets(), FONT_ASSETS[i]);
+        }
+        blackTypeface = mTypefaces[Weight.BLACK.ordinal()];
+        boldTypeface = mTypefaces[Weight.BOLD.ordinal()];
+        semiboldTypeface = mTypefaces[Weight.SEMIBOLD.ordinal()];
+        normalTypeface = mTypefaces[Weight.NORMAL.ordinal()];
+        semilightTypeface = mTypefaces[Weight.SEMILIGHT.ordinal()];
+        lightTypeface = mTypefaces[Weight.LIGHT.ordinal()];
+        TraceCompat.endSection();
+
+        // typefaces live as long as the process, so they are reported but never evicted
+        mTypefaceSize = measureFontAssets(context);
+        MemoryBudget.getInstance().register(context, new MemoryBudget.Cache() {
+            @Override
+            public String getName() {
+                return "typefaces";
+            }
+
+            @Override
+            public long size() {
+                return mTypefaceSize;
+            }
+
+            @Override
+            public long oldestAccessTime() {
+                return Long.MAX_VALUE;
+            }
+
+            @Override
+            public boolean evictOldest() {
+                return false;
+            }
+        });
+    }
+
+    /*
+     * Sum up the sizes of the font files. aapt compresses .ttf assets unless told otherwise,
+     * those can't be opened as a file descriptor and are measured by their uncompressed stream.
+     */
+    private static long measureFontAssets(Context context) {
+        final AssetManager assets = context.getAssets();
+        long size = 0;
+        for (String asset : FONT_ASSETS) {
+            try {
+                final AssetFileDescriptor fd = assets.openFd(asset);
+                size += fd.getLength();
+                fd.close();
+                continue;
+            }
+            catch (IOException e) {
+                // compressed
+            }
+            try {
+                final InputStream in = assets.open(asset);
+                size += in.available();
+                in.close();
+            }
+            catch (IOException e) {
+                Log.w(LOG_TAG, "failed to measure font asset " + asset + ", typefaces are under-reported", e);
+            }
+        }
+        return size;
+    }
+
+    public Typeface getTypeface(Weight weight) {
+        return mTypefaces[weight.ordinal()];
     }
 
     public static UIContext getUIContext(Context context) {
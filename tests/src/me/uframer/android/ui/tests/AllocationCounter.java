@@ -0,0 +1,109 @@
+/**
+ *
+ */
+package me.uframer.android.ui.tests;
+
+import android.os.Debug;
+
+/**
+ * <p>
+ * Counts the objects allocated by the UI thread inside the frame work of a panorama, i.e.
+ * touch handling, scrolling, measure, layout, computeScroll and draw, bracketed by {@link #enter} and
+ * {@link #exit}. Everything else the UI thread does between two frames, e.g. dispatching the
+ * injected events or running the idle handlers of Instrumentation, is not counted. A frame
+ * ends with {@link #endFrame}, and the first frames after {@link #start} are not checked since
+ * starting a drag, a fling or a flip may allocate legitimately.
+ * </p>
+ * <p>
+ * NOTE: It relies on Debug.startAllocCounting(), which slows down every allocation of the
+ * process. All methods must be called on the UI thread, e.g. through
+ * Instrumentation.runOnMainSync().
+ * </p>
+ * @author jiaoye
+ *
+ */
+final class AllocationCounter {
+
+    private boolean mIsCounting;
+    private int mBudget;
+    private int mFramesToSkip;
+    private int mDepth; // of nested enter() calls
+    private int mEnterCount;
+    private int mFrameAllocations;
+    private int mFrameCount;
+    private int mMaxAllocations;
+    private int mFramesOverBudget;
+
+    /**
+     * @param budget the allocations allowed per frame
+     * @param warmupFrames the frames not checked at the beginning
+     */
+    void start(int budget, int warmupFrames) {
+        mBudget = budget;
+        mFramesToSkip = warmupFrames;
+        mDepth = 0;
+        mFrameAllocations = 0;
+        mFrameCount = 0;
+        mMaxAllocations = 0;
+        mFramesOverBudget = 0;
+        Debug.startAllocCounting();
+        mIsCounting = true;
+    }
+
+    /**
+     * Stop counting, the frame in progress is not checked.
+     */
+    void stop() {
+        mIsCounting = false;
+        Debug.stopAllocCounting();
+    }
+
+    void enter() {
+        if (mIsCounting && mDepth++ == 0) {
+            mEnterCount = Debug.getThreadAllocCount();
+        }
+    }
+
+    void exit() {
+        if (mIsCounting && mDepth > 0 && --mDepth == 0) {
+            mFrameAllocations += Debug.getThreadAllocCount() - mEnterCount;
+        }
+    }
+
+    /**
+     * Close the frame, called once the panorama is drawn.
+     */
+    void endFrame() {
+        if (!mIsCounting) {
+            return;
+        }
+        if (mFramesToSkip > 0) {
+            mFramesToSkip--;
+        }
+        else {
+            mFrameCount++;
+            if (mFrameAllocations > mMaxAllocations) {
+                mMaxAllocations = mFrameAllocations;
+            }
+            if (mFrameAllocations > mBudget) {
+                mFramesOverBudget++;
+            }
+        }
+        mFrameAllocations = 0;
+    }
+
+    /**
+     * @return the frames checked since start()
+     */
+    int getFrameCount() {
+        return mFrameCount;
+    }
+
+    int getMaxAllocations() {
+        return mMaxAllocations;
+    }
+
+    int getFramesOverBudget() {
+        return mFramesOverBudget;
+    }
+}
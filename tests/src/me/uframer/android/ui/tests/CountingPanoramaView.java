@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package me.uframer.android.ui.tests;
+
+import me.uframer.android.ui.PanoramaView;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.view.MotionEvent;
+
+/**
+ * <p>
+ * A panorama reporting the allocations of its own frame work to an {@link AllocationCounter},
+ * so the counts leave out whatever else the UI thread does between frames.
+ * </p>
+ * <p>
+ * NOTE: A frame ends with draw(), computeScroll() runs right before it when the parent draws
+ * the panorama.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public class CountingPanoramaView extends PanoramaView {
+
+    private final AllocationCounter mCounter = new AllocationCounter();
+
+    public CountingPanoramaView(Context context, PanoramaView.Config config) {
+        super(context, config);
+    }
+
+    AllocationCounter getCounter() {
+        return mCounter;
+    }
+
+    @Override
+    public boolean onInterceptTouchEvent(MotionEvent ev) {
+        mCounter.enter();
+        try {
+            return super.onInterceptTouchEvent(ev);
+        }
+        finally {
+            mCounter.exit();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent ev) {
+        mCounter.enter();
+        try {
+            return super.onTouchEvent(ev);
+        }
+        finally {
+            mCounter.exit();
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        mCounter.enter();
+        try {
+            super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+        }
+        finally {
+            mCounter.exit();
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        mCounter.enter();
+        try {
+            super.onLayout(changed, l, t, r, b);
+        }
+        finally {
+            mCounter.exit();
+        }
+    }
+
+    @Override
+    public void scrollTo(int x, int y) {
+        // also reached from the wrap jumps the panorama posts
+        mCounter.enter();
+        try {
+            super.scrollTo(x, y);
+        }
+        finally {
+            mCounter.exit();
+        }
+    }
+
+    @Override
+    public void computeScroll() {
+        mCounter.enter();
+        try {
+            super.computeScroll();
+        }
+        finally {
+            mCounter.exit();
+        }
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        mCounter.enter();
+        try {
+            super.draw(canvas);
+        }
+        finally {
+            mCounter.exit();
+        }
+        mCounter.endFrame();
+    }
+}
@@ -0,0 +1,201 @@
+/**
+ *
+ */
+package me.uframer.android.ui.tests;
+
+import android.app.Instrumentation;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * <p>
+ * Scripted drag, fling, wrap and flip scenarios on a panorama, each failing when a steady
+ * frame of it allocates more objects than the budget. Only the frame work of the panorama
+ * itself is counted, see {@link CountingPanoramaView}. A frame is steady once the scenario has
+ * drawn its first few frames.
+ * </p>
+ * <p>
+ * NOTE: Every scenario runs once unchecked before it is checked, so that the tile grids have
+ * their scrap tiles and the caches are filled. Touch events are injected, so the tests need
+ * an unlocked screen but no user.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public class PanoramaAllocationTest extends ActivityInstrumentationTestCase2<PanoramaTestActivity> {
+
+    private static final int ALLOCATION_BUDGET = 0; // per steady frame
+    private static final int WARMUP_FRAMES = 2;
+    private static final long MOVE_INTERVAL = 16; // in milliseconds
+    private static final int DRAG_MOVES = 30;
+    private static final int FLING_MOVES = 5;
+
+    private Instrumentation mInstrumentation;
+    private PanoramaTestActivity mActivity;
+    private CountingPanoramaView mPanorama;
+    private AllocationCounter mCounter;
+    private final int[] mLocation = new int[2];
+
+    public PanoramaAllocationTest() {
+        super("me.uframer.android.ui.tests", PanoramaTestActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mInstrumentation = getInstrumentation();
+        mActivity = getActivity();
+        mPanorama = mActivity.getPanorama();
+        mCounter = mPanorama.getCounter();
+        mInstrumentation.waitForIdleSync();
+        mPanorama.getLocationOnScreen(mLocation);
+    }
+
+    public void testDrag() {
+        drag(0.8f, 0.2f, false);
+        drag(0.2f, 0.8f, false);
+        drag(0.8f, 0.2f, true);
+        assertWithinBudget("drag");
+    }
+
+    public void testFling() {
+        fling(0.8f, 0.2f, false);
+        fling(0.8f, 0.2f, true);
+        assertWithinBudget("fling");
+    }
+
+    public void testWrapToHead() {
+        showSection(PanoramaTestActivity.SECTION_COUNT - 1);
+        fling(0.8f, 0.2f, false);
+        showSection(PanoramaTestActivity.SECTION_COUNT - 1);
+        fling(0.8f, 0.2f, true);
+        assertWithinBudget("wrap to head");
+    }
+
+    public void testWrapToTail() {
+        showSection(0);
+        fling(0.2f, 0.8f, false);
+        showSection(0);
+        fling(0.2f, 0.8f, true);
+        assertWithinBudget("wrap to tail");
+    }
+
+    public void testFlip() {
+        flip(false);
+        flip(true);
+        assertWithinBudget("flip");
+    }
+
+    /*
+     * Drag across the panorama, the frames while the finger moves are checked.
+     * @param from the start of the drag as a fraction of the panorama width
+     * @param to the end of the drag as a fraction of the panorama width
+     */
+    private void drag(float from, float to, boolean check) {
+        final long downTime = SystemClock.uptimeMillis();
+        final float y = mLocation[1] + mPanorama.getHeight() / 2;
+        final float fromX = mLocation[0] + mPanorama.getWidth() * from;
+        final float step = mPanorama.getWidth() * (to - from) / DRAG_MOVES;
+        sendMotionEvent(downTime, MotionEvent.ACTION_DOWN, fromX, y);
+        for (int i = 1; i <= DRAG_MOVES; ++i) {
+            if (check && i == 1) {
+                startCounting();
+            }
+            sendMotionEvent(downTime, MotionEvent.ACTION_MOVE, fromX + step * i, y);
+            SystemClock.sleep(MOVE_INTERVAL);
+        }
+        if (check) {
+            stopCounting();
+        }
+        sendMotionEvent(downTime, MotionEvent.ACTION_UP, fromX + step * DRAG_MOVES, y);
+        mInstrumentation.waitForIdleSync();
+    }
+
+    /*
+     * Swipe quickly and let the panorama settle, the settling frames are checked.
+     */
+    private void fling(float from, float to, boolean check) {
+        final long downTime = SystemClock.uptimeMillis();
+        final float y = mLocation[1] + mPanorama.getHeight() / 2;
+        final float fromX = mLocation[0] + mPanorama.getWidth() * from;
+        final float step = mPanorama.getWidth() * (to - from) / FLING_MOVES;
+        sendMotionEvent(downTime, MotionEvent.ACTION_DOWN, fromX, y);
+        for (int i = 1; i <= FLING_MOVES; ++i) {
+            sendMotionEvent(downTime, MotionEvent.ACTION_MOVE, fromX + step * i, y);
+            SystemClock.sleep(MOVE_INTERVAL);
+        }
+        sendMotionEvent(downTime, MotionEvent.ACTION_UP, fromX + step * FLING_MOVES, y);
+        if (check) {
+            startCounting();
+        }
+        // the settling frames keep the main looper busy until the panorama is at rest
+        mInstrumentation.waitForIdleSync();
+        if (check) {
+            stopCounting();
+        }
+    }
+
+    /*
+     * Flip a tile in the viewport and wait until the flip is over, the flip frames are checked.
+     */
+    private void flip(final boolean check) {
+        final View tile = mActivity.getFirstTile();
+        assertNotNull("no tile is bound in the viewport", tile);
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (check) {
+                    mCounter.start(ALLOCATION_BUDGET, WARMUP_FRAMES);
+                }
+                mActivity.getScheduler().schedule(tile, mActivity.getSwap());
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+        if (check) {
+            stopCounting();
+        }
+    }
+
+    private void showSection(final int index) {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mPanorama.setCurrentSection(index);
+            }
+        });
+        mInstrumentation.waitForIdleSync();
+    }
+
+    private void sendMotionEvent(long downTime, int action, float x, float y) {
+        final MotionEvent ev = MotionEvent.obtain(downTime, SystemClock.uptimeMillis(), action, x, y, 0);
+        mInstrumentation.sendPointerSync(ev);
+        ev.recycle();
+    }
+
+    private void startCounting() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCounter.start(ALLOCATION_BUDGET, WARMUP_FRAMES);
+            }
+        });
+    }
+
+    private void stopCounting() {
+        mInstrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCounter.stop();
+            }
+        });
+    }
+
+    private void assertWithinBudget(String scenario) {
+        assertTrue(scenario + " drew no steady frame", mCounter.getFrameCount() > 0);
+        assertEquals(scenario + ": " + mCounter.getFramesOverBudget() + " of " + mCounter.getFrameCount()
+                     + " steady frames allocated more than " + ALLOCATION_BUDGET + " objects, at most "
+                     + mCounter.getMaxAllocations(), 0, mCounter.getFramesOverBudget());
+    }
+}
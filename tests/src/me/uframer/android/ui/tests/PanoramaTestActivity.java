@@ -0,0 +1,115 @@
+/**
+ *
+ */
+package me.uframer.android.ui.tests;
+
+import me.uframer.android.ui.LiveTileScheduler;
+import me.uframer.android.ui.PanoramaSection;
+import me.uframer.android.ui.PanoramaView;
+import me.uframer.android.ui.TileGridView;
+import android.app.Activity;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Bundle;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+
+/**
+ * <p>
+ * Hosts a counting panorama of tile grid sections for the scripted scenarios of
+ * {@link PanoramaAllocationTest}. The panorama is wide enough to wrap in both directions and
+ * every tile can flip through a {@link LiveTileScheduler}.
+ * </p>
+ * <p>
+ * NOTE: Tiles are plain views with shared drawables, so binding and swapping them doesn't
+ * allocate once the grids have their scrap tiles.
+ * </p>
+ * @author jiaoye
+ *
+ */
+public class PanoramaTestActivity extends Activity {
+
+    static final int SECTION_COUNT = 4;
+    private static final int TILES_PER_SECTION = 12;
+
+    private final Drawable mFrontDrawable = new ColorDrawable(0xff1ba1e2);
+    private final Drawable mBackDrawable = new ColorDrawable(0xff339933);
+    private final LiveTileScheduler.ContentSwap mSwap = new LiveTileScheduler.ContentSwap() {
+        @Override
+        public void swap(View tile) {
+            tile.setBackgroundDrawable(tile.getBackground() == mFrontDrawable ? mBackDrawable : mFrontDrawable);
+        }
+    };
+
+    private CountingPanoramaView mPanorama;
+    private LiveTileScheduler mScheduler;
+    private TileGridView mFirstGrid;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mPanorama = new CountingPanoramaView(this, new PanoramaView.Config.Builder().setTitle("panorama").build());
+        for (int i = 0; i < SECTION_COUNT; ++i) {
+            final PanoramaSection ps = new PanoramaSection(this, new PanoramaSection.Config.Builder().setTitle("section " + i).build());
+            final TileGridView grid = new TileGridView(this);
+            grid.setAdapter(new TileAdapter());
+            ps.setContent(grid);
+            mPanorama.addSection(ps);
+            if (i == 0) {
+                mFirstGrid = grid;
+            }
+        }
+        mScheduler = new LiveTileScheduler(mPanorama);
+        setContentView(mPanorama);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mScheduler.release();
+        super.onDestroy();
+    }
+
+    CountingPanoramaView getPanorama() {
+        return mPanorama;
+    }
+
+    LiveTileScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    LiveTileScheduler.ContentSwap getSwap() {
+        return mSwap;
+    }
+
+    /*
+     * A bound tile of the first section, which is in the viewport right after the launch.
+     */
+    View getFirstTile() {
+        return mFirstGrid.getChildAt(0);
+    }
+
+    private class TileAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return TILES_PER_SECTION;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return null;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            final View tile = convertView != null ? convertView : new View(PanoramaTestActivity.this);
+            tile.setBackgroundDrawable(position % 2 == 0 ? mFrontDrawable : mBackDrawable);
+            return tile;
+        }
+    }
+}